@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import database.rest.config.Config;
 import database.rest.servers.Server;
+import database.rest.pools.ThreadPool;
 
 
 public class Statistics
@@ -48,7 +49,11 @@ public class Statistics
 
   private long requests;
 
-  public static final int reclen = 7*Long.BYTES+3;
+  private long rejected;
+  private long dropped;
+  private long expired;
+
+  public static final int reclen = 10*Long.BYTES+3;
 
 
   @SuppressWarnings("cast")
@@ -63,6 +68,10 @@ public class Statistics
       stats.pid = server.pid();
       stats.started = server.started();
       stats.requests = server.requests();
+
+      stats.rejected = ThreadPool.rejected();
+      stats.dropped = ThreadPool.dropped();
+      stats.expired = ThreadPool.expired();
       stats.updated = System.currentTimeMillis();
 
       stats.totmem = Runtime.getRuntime().maxMemory();
@@ -81,6 +90,10 @@ public class Statistics
       data.putLong(stats.freemem);
       data.putLong(stats.requests);
 
+      data.putLong(stats.rejected);
+      data.putLong(stats.dropped);
+      data.putLong(stats.expired);
+
       data.put(srvtype);
       data.put(httpmgr);
       data.put(restmgr);
@@ -122,6 +135,10 @@ public class Statistics
           stats.freemem  = data.getLong();
           stats.requests = data.getLong();
 
+          stats.rejected = data.getLong();
+          stats.dropped  = data.getLong();
+          stats.expired  = data.getLong();
+
           byte srvtype = data.get();
           byte httpmgr = data.get();
           byte restmgr = data.get();
@@ -181,6 +198,21 @@ public class Statistics
     return(requests);
   }
 
+  public long rejected()
+  {
+    return(rejected);
+  }
+
+  public long dropped()
+  {
+    return(dropped);
+  }
+
+  public long expired()
+  {
+    return(expired);
+  }
+
   public boolean online()
   {
     return(online);
@@ -117,7 +117,12 @@ public class Config
   {
     if (pkictx != null) return(pkictx);
     Security security = this.getSecurity();
+
+    // Stateless resumption, read by the JDK when the first SSLContext is created
+    System.setProperty("jdk.tls.server.enableSessionTicketExtension",""+security.sessionTickets());
+
     pkictx = new PKIContext(security.getIdentity(),security.getTrusted());
+    pkictx.setSessionCache(security.sessionCache(),security.sessionTimeout());
     return(pkictx);
   }
 
@@ -38,6 +38,7 @@ public class Database
 {
   public final String url;
   public final String test;
+  public final int statements;
 
   public final String repository;
 
@@ -77,6 +78,9 @@ public class Database
     this.url = Config.get(section,"jdbc");
     this.test = Config.get(section,"test");
 
+    // prepared statements kept per connection
+    this.statements = Config.get(section,"statement.cache",128);
+
     this.type = DatabaseType.valueOf(type);
     this.urlparts = DatabaseUtils.parse(url);
 
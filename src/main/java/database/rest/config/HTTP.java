@@ -36,9 +36,19 @@ public class HTTP
   public final Ports ports;
   public final int timeout;
   public final int bufsize;
+  public final int bufpool;
+  public final int maxbody;
+  public final int maxpending;
+  public final int transfer;
+  public final boolean http2;
+  public final int maxstreams;
+  public final int h2window;
+  public final int h2buffer;
   public final String tmppath;
   public final String virtendp;
   public final int graceperiod;
+  public final long cachesize;
+  public final boolean offheap;
   public final Handlers handlers;
   public final ArrayList<FilePattern> cache;
   public final ArrayList<String> corsdomains;
@@ -53,10 +63,31 @@ public class HTTP
 
     JSONObject buffers = Config.getSection(config,"buffers");
     this.bufsize = Config.get(buffers,"network",4096);
+    this.bufpool = Config.get(buffers,"pool",1024);
+    this.maxbody = Config.get(buffers,"max.body",256*1024*1024);
+    this.maxpending = Config.get(buffers,"max.pending",1024*1024);
+
+    // Files of this size and larger are sent from disk, not read into memory
+    this.transfer = Config.get(buffers,"file.transfer",64*1024);
+
+    JSONObject http2 = new JSONObject();
+    if (Config.has(config,"http2")) http2 = Config.getSection(config,"http2");
+
+    // h2 with ALPN on the ssl port, h2c with prior knowledge on the plain port
+    this.http2 = Config.get(http2,"enabled",true);
+    this.maxstreams = Config.get(http2,"max-concurrent-streams",100);
+    this.h2window = Config.get(http2,"window",65535);
+
+    // Request bodies held per connection until the requests are complete, in MB
+    this.h2buffer = Config.get(http2,"max-buffer",64) * 1024 * 1024;
 
     JSONObject deploy = config.getJSONObject("deployment");
     graceperiod = Config.get(deploy,"grace.period");
 
+    // Memory for cached static content, in MB
+    this.cachesize = Config.get(deploy,"cache.memory",64) * 1024L * 1024L;
+    this.offheap = Config.get(deploy,"cache.offheap",false);
+
     String apppath = Config.get(deploy,"path");
     this.path = Config.getPath(apppath,Paths.apphome);
 
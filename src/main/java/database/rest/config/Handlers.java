@@ -21,10 +21,12 @@
 
 package database.rest.config;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
 import database.rest.handlers.Handler;
 import database.rest.handlers.FileHandler;
 import database.rest.handlers.RestHandler;
@@ -34,8 +36,12 @@ import database.rest.handlers.AdminHandler;
 public class Handlers
 {
   private final Config config;
+  private final Route root = new Route("");
   private final ArrayList<HandlerClass> entries = new ArrayList<HandlerClass>();
 
+  private static final ConcurrentHashMap<String,Integer> methods =
+    new ConcurrentHashMap<String,Integer>();
+
   private RestHandler rest = null;
   private FileHandler file = null;
   private AdminHandler admin = null;
@@ -55,6 +61,8 @@ public class Handlers
 
     for(HandlerClass hdl : this.entries)
     {
+      root.add(hdl);
+
       switch(hdl.name())
       {
         case "database.rest.handlers.FileHandler" :
@@ -94,20 +102,56 @@ public class Handlers
   }
 
 
+  /**
+   *
+   * Longest prefix match, one path segment at a time, without allocating.
+   * If the longest prefix doesn't allow the method, a shorter one may.
+   *
+   */
   public Handler getHandler(String path, String method)
   {
-    path += "/";
+    Integer bit = methods.get(method);
+
+    if (bit == null || path.length() == 0 || path.charAt(0) != '/')
+      return(null);
+
+    int pos = 1;
+    Route route = root;
+    Handler handler = root.handler(bit);
 
-    for(HandlerClass entry : entries)
+    while(pos <= path.length())
     {
-      if (path.startsWith(entry.prefix))
-      {
-        if (entry.methods.contains(method))
-          return(entry.handler);
-      }
+      int end = path.indexOf('/',pos);
+      if (end < 0) end = path.length();
+
+      route = route.next(path,pos,end);
+      if (route == null) break;
+
+      Handler match = route.handler(bit);
+      if (match != null) handler = match;
+
+      pos = end + 1;
     }
 
-    return(null);
+    return(handler);
+  }
+
+
+  private static int bit(String method)
+  {
+    synchronized(methods)
+    {
+      Integer bit = methods.get(method);
+      if (bit != null) return(bit);
+
+      if (methods.size() == 31)
+        throw new IllegalStateException("Too many http methods, "+method);
+
+      bit = 1 << methods.size();
+      methods.put(method,bit);
+
+      return(bit);
+    }
   }
 
 
@@ -142,10 +186,12 @@ public class Handlers
     public final String prefix;
     public final Handler handler;
     public final HashSet<String> methods = new HashSet<String>();
+    public final int mask;
 
 
     HandlerClass(Config config, String prefix, String methods, String clazz) throws Exception
     {
+      int mask = 0;
       this.prefix = prefix;
       String meth[] = methods.split(",");
       for(String m : meth)
@@ -153,9 +199,14 @@ public class Handlers
         m = m.trim();
 
         if (m.length() > 0)
+        {
           this.methods.add(m.toUpperCase());
+          mask |= bit(m.toUpperCase());
+        }
       }
 
+      this.mask = mask;
+
       HandlerProperties properties = new HandlerProperties(prefix,this.methods);
       Constructor<?> contructor = Class.forName(clazz).getDeclaredConstructor(Config.class,HandlerProperties.class);
 
@@ -182,4 +233,95 @@ public class Handlers
       return(another.prefix.length() - this.prefix.length());
     }
   }
+
+
+  /**
+   *
+   * A node in the trie of handler prefixes, one per path segment.
+   * Handlers mapped to the same prefix are kept in order of configuration.
+   *
+   */
+  private static class Route
+  {
+    private final int hash;
+    private final String segment;
+
+    private int[] masks = new int[0];
+    private Route[] next = new Route[0];
+    private Handler[] handlers = new Handler[0];
+
+
+    Route(String segment)
+    {
+      this.segment = segment;
+      this.hash = segment.hashCode();
+    }
+
+
+    void add(HandlerClass hdl)
+    {
+      Route route = this;
+      String prefix = hdl.prefix;
+
+      if (prefix.length() > 1)
+      {
+        for(String segment : prefix.substring(1,prefix.length()-1).split("/",-1))
+        {
+          Route child = route.next(segment,0,segment.length());
+
+          if (child == null)
+          {
+            child = new Route(segment);
+            route.next = Arrays.copyOf(route.next,route.next.length+1);
+            route.next[route.next.length-1] = child;
+          }
+
+          route = child;
+        }
+      }
+
+      int n = route.handlers.length;
+
+      route.masks = Arrays.copyOf(route.masks,n+1);
+      route.handlers = Arrays.copyOf(route.handlers,n+1);
+
+      route.masks[n] = hdl.mask;
+      route.handlers[n] = hdl.handler;
+    }
+
+
+    Handler handler(int bit)
+    {
+      for (int i = 0; i < handlers.length; i++)
+        if ((masks[i] & bit) != 0) return(handlers[i]);
+
+      return(null);
+    }
+
+
+    /**
+     *
+     * The child for path[pos,end). The hash is computed as String.hashCode()
+     * on the segment, without creating it.
+     *
+     */
+    Route next(String path, int pos, int end)
+    {
+      int hash = 0;
+      int len = end - pos;
+
+      for (int i = pos; i < end; i++)
+        hash = 31 * hash + path.charAt(i);
+
+      for (int i = 0; i < next.length; i++)
+      {
+        Route route = next[i];
+
+        if (route.hash == hash && route.segment.length() == len && path.regionMatches(pos,route.segment,0,len))
+          return(route);
+      }
+
+      return(null);
+    }
+  }
 }
\ No newline at end of file
@@ -31,9 +31,14 @@ public class Rest
   public final int ssotimeout;
   public final String fileroot;
   public final boolean tmpfiles;
+  public final boolean compress;
+  public final int compressmin;
+  public final int compresslevel;
+  public final boolean stream;
+  public final int chunk;
 
 
-  public Rest(JSONObject config)
+  public Rest(JSONObject config) throws Exception
   {
     this.dump = Config.get(config,"ses.dump",0);
     this.timeout = Config.get(config,"ses.timeout");
@@ -43,5 +48,20 @@ public class Rest
 
     this.tmpfiles = Config.get(config,"files.tmpnames");
     this.fileroot = Config.getPath(fileroot,Paths.apphome);
+
+    JSONObject compression = new JSONObject();
+    if (Config.has(config,"compression")) compression = Config.getSection(config,"compression");
+
+    // gzip or deflate, as accepted by the client, for responses of at least minsize bytes
+    this.compress = Config.get(compression,"enabled",true);
+    this.compressmin = Config.get(compression,"minsize",8192);
+    this.compresslevel = Config.get(compression,"level",6);
+
+    JSONObject streaming = new JSONObject();
+    if (Config.has(config,"stream")) streaming = Config.getSection(config,"stream");
+
+    // selects are sent in chunks of this size while the rows are read
+    this.stream = Config.get(streaming,"enabled",true);
+    this.chunk = Config.get(streaming,"chunk",65536);
   }
 }
\ No newline at end of file
@@ -38,6 +38,10 @@ public class Security
 
   private final boolean tokens;
   private final boolean database;
+
+  private final int sescache;
+  private final int sestimeout;
+  private final boolean tickets;
   private final Hashtable<String,CustomAuthenticator> authenticators;
 
 
@@ -102,6 +106,14 @@ public class Security
     }
 
     this.secret = Config.get(config,"shared_secret");
+
+    JSONObject session = new JSONObject();
+    if (Config.has(config,"session")) session = Config.getSection(config,"session");
+
+    // Server side TLS sessions kept for resumption, timeout in secs
+    this.sescache = Config.get(session,"cache",20480);
+    this.sestimeout = Config.get(session,"timeout",86400);
+    this.tickets = Config.get(session,"tickets",true);
   }
 
 
@@ -120,6 +132,21 @@ public class Security
     return(identity);
   }
 
+  public int sessionCache()
+  {
+    return(sescache);
+  }
+
+  public int sessionTimeout()
+  {
+    return(sestimeout);
+  }
+
+  public boolean sessionTickets()
+  {
+    return(tickets);
+  }
+
   public boolean tokens()
   {
     return(tokens);
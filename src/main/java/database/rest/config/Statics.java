@@ -23,6 +23,7 @@ package database.rest.config;
 
 import database.rest.admin.Client;
 import database.rest.database.Database;
+import database.rest.database.StatementCache;
 import database.rest.handlers.CrossOrigin;
 import database.rest.servers.http.HTTPResponse;
 
@@ -34,6 +35,7 @@ public class Statics
     Database.setUrl(config.getDatabase().url);
     HTTPResponse.init(config.getHTTP().timeout);
     Database.setTestSQL(config.getDatabase().test);
+    StatementCache.size(config.getDatabase().statements);
     CrossOrigin.init(config.getHTTP().host,config.getHTTP().corsdomains);
     Client.setConfig(config.getPKIContext(),config.getHTTP().bufsize,Config.clientTimeout());
   }
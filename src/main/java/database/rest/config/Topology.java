@@ -27,15 +27,24 @@ import org.json.JSONObject;
 public class Topology
 {
   public final boolean hot;
+  public final boolean virtual;
   public final short workers;
   public final short waiters;
+  public final short acceptors;
   public final short servers;
 
   public final int heartbeat;
 
+  public final int queue;
+  public final int deadline;
+  public final int retryafter;
+  public final boolean dropoldest;
+
   public final int extnds;
   public final int extsize;
 
+  private final JSONObject executors;
+
   public static final int cores = Runtime.getRuntime().availableProcessors();
 
 
@@ -57,10 +66,26 @@ public class Topology
 
     this.waiters = waiters;
 
+    // Accepting threads per port, more than 1 requires SO_REUSEPORT
+    short acceptors = Config.get(config,"acceptors",1).shortValue();
+    this.acceptors = acceptors > 0 ? acceptors : 1;
+
     if (workers > 0) this.workers = workers;
     else             this.workers = (short) (multi * 8 * cores);
 
     this.hot = Config.get(config,"hot-standby");
+    this.virtual = Config.get(config,"virtual-threads",false);
+
+    JSONObject queue = new JSONObject();
+    if (config.has("queue")) queue = config.getJSONObject("queue");
+
+    // Tasks waiting for a thread per stage (0 is 4 x threads). Deadline in ms, Retry-After in secs
+    this.queue = Config.get(queue,"size",0);
+    this.deadline = Config.get(queue,"deadline",10000);
+    this.retryafter = Config.get(queue,"retry-after",1);
+    this.dropoldest = Config.get(queue,"policy","reject").equals("drop-oldest");
+
+    this.executors = config.has("executors") ? config.getJSONObject("executors") : new JSONObject();
 
     JSONObject ipc = config.getJSONObject("ipc");
 
@@ -86,4 +111,27 @@ public class Topology
 
     this.heartbeat = Config.get(ipc,"heartbeat");
   }
+
+
+  /**
+   *
+   * Threads for a stage, i.e. accept, http, files or rest.
+   * Handshakes and static files are short tasks and default to a few per core,
+   * http and rest (jdbc) default to workers.
+   *
+   */
+  public int threads(String stage)
+  {
+    int threads = 0;
+
+    switch(stage)
+    {
+      case "accept" : threads = cores; break;
+      case "files"  : threads = 2 * cores; break;
+      default       : threads = workers; break;
+    }
+
+    threads = Config.get(executors,stage,threads);
+    return(threads > 0 ? threads : 1);
+  }
 }
\ No newline at end of file
@@ -386,6 +386,41 @@ public class Launcher implements ILauncher
     out.println(line);
     out.println();
 
+
+    // Load shedding
+
+    String hrejected = String.format("%12s","rejected  ");
+    String hdropped = String.format("%12s","dropped  ");
+    String hexpired = String.format("%12s","expired  ");
+
+    out.println("Shed requests");
+    line = String.format("%47s"," ").replace(" ","-");
+
+    out.println(line);
+    out.println("|"+hid+" |"+hrejected+" |"+hdropped+" |"+hexpired+" |");
+    out.println(line);
+
+    for (Statistics stats : statistics)
+    {
+      if (!stats.online()) continue;
+
+      String id = String.format(" %2s ",stats.id());
+      String rejected = String.format("%12s ",stats.rejected());
+      String dropped = String.format("%12s ",stats.dropped());
+      String expired = String.format("%12s ",stats.expired());
+
+      out.print("|"+id+"");
+      out.print("|"+rejected+"");
+      out.print("|"+dropped+"");
+      out.print("|"+expired+"");
+
+      out.print("|");
+      out.print(System.lineSeparator());
+    }
+
+    out.println(line);
+    out.println();
+
     out.flush();
     return(new String(bout.toByteArray()));
   }
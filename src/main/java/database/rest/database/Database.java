@@ -44,9 +44,11 @@ public abstract class Database
   private Connection conn;
   private long touched = 0;
   private boolean dangling = false;
+  private final StatementCache statements = new StatementCache();
 
   private static String url;
   private static String teststmt;
+  private final static String CALL = "{call}";
   private static AtomicInteger next = new AtomicInteger(0);
   private final static Logger logger = Logger.getLogger("rest");
 
@@ -126,6 +128,8 @@ public abstract class Database
 
   public void disconnect()
   {
+    statements.clear();
+
     try {conn.close();}
     catch (Exception e) {;}
     finally {this.conn = null;}
@@ -231,7 +235,8 @@ public abstract class Database
 
   public PreparedStatement prepare(String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
-    PreparedStatement stmt = conn.prepareStatement(sql);
+    PreparedStatement stmt = (PreparedStatement) statements.take(sql);
+    if (stmt == null) stmt = conn.prepareStatement(sql);
 
     for (int i = 0; i < bindvalues.size(); i++)
     {
@@ -247,7 +252,8 @@ public abstract class Database
 
   public CallableStatement prepareCall(String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
-    CallableStatement stmt = conn.prepareCall(sql);
+    CallableStatement stmt = (CallableStatement) statements.take(CALL+sql);
+    if (stmt == null) stmt = conn.prepareCall(sql);
 
     for (int i = 0; i < bindvalues.size(); i++)
     {
@@ -268,6 +274,55 @@ public abstract class Database
   }
 
 
+  /**
+   *
+   * Done with a statement from prepare or prepareCall. It is cleared and kept for
+   * the next request with the same sql, instead of being parsed again.
+   *
+   */
+  public void release(String sql, PreparedStatement stmt)
+  {
+    if (stmt == null)
+      return;
+
+    try
+    {
+      if (conn == null || stmt.isClosed())
+        return;
+
+      stmt.clearParameters();
+
+      if (stmt instanceof CallableStatement) statements.put(CALL+sql,stmt);
+      else                                   statements.put(sql,stmt);
+    }
+    catch (Exception e)
+    {
+      close(stmt);
+    }
+  }
+
+
+  public void close(Statement stmt)
+  {
+    if (stmt == null)
+      return;
+
+    try {stmt.close();}
+    catch (Exception e) {;}
+  }
+
+
+  /**
+   *
+   * Closes the cached statements, i.e. when they cannot outlive a proxy session.
+   *
+   */
+  public void clearStatements()
+  {
+    statements.clear();
+  }
+
+
   public ResultSet executeQuery(PreparedStatement stmt) throws Exception
   {
     return(stmt.executeQuery());
@@ -283,7 +338,9 @@ public abstract class Database
   public boolean execute(String sql) throws Exception
   {
     Statement stmt = conn.createStatement();
-    return(stmt.execute(sql));
+
+    try {return(stmt.execute(sql));}
+    finally {close(stmt);}
   }
 
 
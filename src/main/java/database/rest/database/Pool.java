@@ -24,12 +24,27 @@ package database.rest.database;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-
-
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ *
+ * Idle connections are kept on a lock-free stack, so the most recently used is
+ * reused first, and the oldest drift to the bottom where the PoolManager times
+ * them out. When the pool is exhausted, callers queue up in arrival order and
+ * park until a released connection, or a free slot, is handed directly to them.
+ *
+ * Parking rather than holding a lock also keeps virtual threads from pinning
+ * their carrier threads while waiting.
+ *
+ */
 public class Pool
 {
-  private int size = 0;
-  private boolean closed = false;
+  private volatile boolean closed = false;
 
   private final int min;
   private final int max;
@@ -39,7 +54,11 @@ public class Pool
   private final boolean proxy;
   private final String username;
   private final String password;
-  private final ArrayList<Database> pool;
+
+  private final AtomicInteger size = new AtomicInteger();
+  private final ConcurrentLinkedDeque<Database> pool = new ConcurrentLinkedDeque<Database>();
+  private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
   private final static Logger logger = Logger.getLogger("rest");
 
 
@@ -53,7 +72,6 @@ public class Pool
     this.token = token;
     this.username = username;
     this.password = password;
-    this.pool = new ArrayList<Database>();
   }
 
 
@@ -128,9 +146,9 @@ public class Pool
   }
 
 
-  public synchronized void add(Database database)
+  public void add(Database database)
   {
-    pool.add(database);
+    offer(database);
   }
 
 
@@ -150,9 +168,9 @@ public class Pool
   }
 
 
-  public synchronized boolean remove(Database database, long touched)
+  public boolean remove(Database database, long touched)
   {
-    if (!pool.remove(database))
+    if (!pool.removeFirstOccurrence(database))
     {
       logger.warning("Unable to remove connection "+database);
       return(false);
@@ -165,7 +183,7 @@ public class Pool
       return(false);
     }
 
-    size--;
+    freed();
     database.disconnect();
     logger.fine("Pool["+(proxy ? "proxy" : "fixed")+"] connection closed");
 
@@ -190,29 +208,24 @@ public class Pool
         throw new Exception("Invalid connect token");
     }
 
-    Database database = null;
-    long busy = this.busy() * 1000;
-    long start = System.currentTimeMillis();
+    Database database = pool.pollFirst();
+    if (database != null) return(database);
 
-    synchronized(this)
-    {
-      while(pool.size() == 0 && size == max)
-      {
-        if (System.currentTimeMillis() - start > busy)
-          throw new Exception("No more available connections in pool");
+    if (!reserve())
+      database = await();
 
-        this.wait(1000);
-      }
+    if (database != null)
+      return(database);
 
-      if (pool.size() == 0)
-      {
-        database = connect();
-        size++;
-      }
-      else
-      {
-        database = pool.remove(0);
-      }
+    // The slot is taken, connect outside the pool
+    try
+    {
+      database = connect();
+    }
+    catch (Exception e)
+    {
+      freed();
+      throw e;
     }
 
     return(database);
@@ -234,54 +247,54 @@ public class Pool
       }
     }
 
-    synchronized(this)
+    if (database.dangling())
     {
-      if (database.dangling())
-      {
-        database.dangling(false);
-        if (size >= max) return;
-        size++;
-      }
-
-      database.touch();
-      pool.add(0,database);
-      this.notifyAll();
+      database.dangling(false);
+      if (!reserve()) return;
     }
+
+    database.touch();
+    offer(database);
   }
 
 
   public void close()
   {
-    synchronized(this)
+    closed = true;
+
+    Waiter waiter = waiters.poll();
+
+    while (waiter != null)
     {
-      closed = true;
-      int size = this.pool.size();
+      waiter.complete(Waiter.CLOSED);
+      waiter = waiters.poll();
+    }
 
-      for (int i = 0; i < size; i++)
-      {
-        this.size--;
-        Database database = this.pool.remove(0);
+    Database database = pool.pollFirst();
 
-        try {database.disconnect();}
-        catch(Exception e) {;}
-      }
+    while (database != null)
+    {
+      size.decrementAndGet();
+
+      try {database.disconnect();}
+      catch(Exception e) {;}
+
+      database = pool.pollFirst();
     }
   }
 
 
   public void validate()
   {
-    synchronized(this)
-    {
-      int size = this.pool.size();
+    int size = this.pool.size();
 
-      for (int i = 0; i < size; i++)
-      {
-        Database database = this.pool.remove(0);
-        if (database.validate()) this.pool.add(database);
-      }
+    for (int i = 0; i < size; i++)
+    {
+      Database database = this.pool.pollLast();
+      if (database == null) break;
 
-      this.size = pool.size();
+      if (database.validate()) offer(database);
+      else freed();
     }
   }
 
@@ -294,14 +307,177 @@ public class Pool
 
   ArrayList<Database> connections()
   {
-    synchronized(this)
-    {return(new ArrayList<Database>(pool));}
+    return(new ArrayList<Database>(pool));
   }
 
 
   public String toString()
   {
-    return("Pool["+(proxy ? "proxy" : "fixed")+"] "+"size: "+size+" free: "+pool.size());
+    return("Pool["+(proxy ? "proxy" : "fixed")+"] "+"size: "+size.get()+" free: "+pool.size()+" waiting: "+waiters.size());
+  }
+
+
+  /**
+   *
+   * Takes a slot for a new connection, if the pool is not at max.
+   *
+   */
+  private boolean reserve()
+  {
+    int slots = size.get();
+
+    while (slots < max)
+    {
+      if (size.compareAndSet(slots,slots+1)) return(true);
+      slots = size.get();
+    }
+
+    return(false);
+  }
+
+
+  /**
+   *
+   * Hands the connection to the longest waiting caller, or puts it on the
+   * idle stack. A caller might queue up between the two, so the stack is
+   * drained to any waiter that arrived in the meantime.
+   *
+   */
+  private void offer(Database database)
+  {
+    while (database != null)
+    {
+      if (handoff(database)) return;
+      pool.offerFirst(database);
+
+      if (waiters.isEmpty()) return;
+      database = pool.pollFirst();
+    }
+  }
+
+
+  /**
+   *
+   * A connection was closed. The slot is handed to the longest waiting caller,
+   * who then connects, or given back to the pool.
+   *
+   */
+  private void freed()
+  {
+    if (handoff(Waiter.SLOT)) return;
+    size.decrementAndGet();
+
+    if (!waiters.isEmpty() && reserve())
+    {
+      if (!handoff(Waiter.SLOT))
+        size.decrementAndGet();
+    }
+  }
+
+
+  private boolean handoff(Object value)
+  {
+    Waiter waiter = waiters.poll();
+
+    while (waiter != null)
+    {
+      if (waiter.complete(value)) return(true);
+      waiter = waiters.poll();
+    }
+
+    return(false);
+  }
+
+
+  /**
+   *
+   * Queues up and parks until a connection or a slot is handed over,
+   * or the busy timeout expires.
+   *
+   */
+  private Database await() throws Exception
+  {
+    Waiter waiter = new Waiter();
+    waiters.offer(waiter);
+
+    // Connections or slots freed before we were queued
+    Database database = pool.pollFirst();
+
+    if (database != null)
+    {
+      if (waiter.cancel()) return(database);
+      offer(database);
+    }
+    else if (reserve())
+    {
+      if (waiter.cancel()) return(null);
+      freed();
+    }
+
+    long deadline = System.nanoTime() + this.busy() * 1000000000L;
+
+    while (waiter.waiting())
+    {
+      long wait = deadline - System.nanoTime();
+
+      if (wait <= 0 || closed)
+      {
+        if (waiter.cancel())
+        {
+          waiters.remove(waiter);
+          if (closed) throw new Exception("Pool closed");
+          throw new Exception("No more available connections in pool");
+        }
+
+        break;
+      }
+
+      LockSupport.parkNanos(this,wait);
+    }
+
+    Object value = waiter.value();
+
+    if (value == Waiter.CLOSED)
+      throw new Exception("Pool closed");
+
+    if (value == Waiter.SLOT)
+      return(null);
+
+    return((Database) value);
+  }
+
+
+  private static class Waiter
+  {
+    final static Object SLOT = new Object();
+    final static Object CLOSED = new Object();
+    final static Object WAITING = new Object();
+    final static Object CANCELLED = new Object();
+
+    private final Thread thread = Thread.currentThread();
+    private final AtomicReference<Object> value = new AtomicReference<Object>(WAITING);
+
+    boolean waiting()
+    {
+      return(value.get() == WAITING);
+    }
+
+    Object value()
+    {
+      return(value.get());
+    }
+
+    boolean cancel()
+    {
+      return(value.compareAndSet(WAITING,CANCELLED));
+    }
+
+    boolean complete(Object value)
+    {
+      if (!this.value.compareAndSet(WAITING,value)) return(false);
+      LockSupport.unpark(thread);
+      return(true);
+    }
   }
 
 
@@ -341,10 +517,22 @@ public class Pool
       {
         for (int i = 0; i < pool.min; i++)
         {
-          Database database = DatabaseUtils.getInstance();
-          database.connect(pool.username,pool.password);
+          if (!pool.reserve()) break;
+
+          Database database = null;
+
+          try
+          {
+            database = DatabaseUtils.getInstance();
+            database.connect(pool.username,pool.password);
+          }
+          catch (Exception e)
+          {
+            pool.freed();
+            throw e;
+          }
+
           pool.add(database);
-          pool.size++;
         }
       }
       catch (Exception e)
@@ -21,13 +21,23 @@
 
 package database.rest.database;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
 
 
+/**
+ *
+ * Rewrites named bind values, :name or &name for out values, to positional.
+ * The rewritten sql and the names in bind order are cached by statement and
+ * the names defined, so a statement seen before only has its values looked up.
+ *
+ */
 public class SQLParser
 {
   private final String sql;
@@ -36,6 +46,11 @@ public class SQLParser
   private final HashMap<String,BindValueDef> bindvalues;
   private final static Logger logger = Logger.getLogger("rest");
 
+  private final static int CACHE = 1024;
+
+  private final static ConcurrentHashMap<Key,Template> parsed =
+    new ConcurrentHashMap<Key,Template>();
+
   private final static Pattern procedure = Pattern.compile("(\\w*\\.)?\\w*\\s*\\(.*\\)");
   private final static Pattern function = Pattern.compile("\\w*\\s*=\\s*(\\w*\\.)?\\w*\\s*\\(.*\\)");
 
@@ -76,13 +91,47 @@ public class SQLParser
 
   public SQLParser(HashMap<String,BindValueDef> bindvalues, String stmt, boolean procedure)
   {
-    stmt = stmt.trim();
     this.bindvalues = bindvalues;
+
+    Key key = new Key(stmt,procedure,bindvalues);
+    Template template = parsed.get(key);
+
+    if (template == null)
+    {
+      template = parse(stmt,procedure);
+
+      // Drop an arbitrary entry, rather than track usage on every lookup
+      if (parsed.size() >= CACHE)
+      {
+        Iterator<Key> keys = parsed.keySet().iterator();
+        if (keys.hasNext()) parsed.remove(keys.next());
+      }
+
+      parsed.put(key,template);
+    }
+
+    this.sql = template.sql;
+    this.func = template.func;
+    this.bindings = new ArrayList<BindValue>(template.names.length);
+
+    for (int i = 0; i < template.names.length; i++)
+      bindings.add(bindvalues.get(template.names[i]).copy(template.out[i]));
+
+    logger.finest(this.sql);
+  }
+
+
+  private Template parse(String stmt, boolean procedure)
+  {
+    boolean func = false;
+    stmt = stmt.trim();
+
     StringBuffer nsql = new StringBuffer();
-    this.bindings = new ArrayList<BindValue>();
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<Boolean> out = new ArrayList<Boolean>();
 
-    if (!procedure) func = false;
-    else   func = function(stmt);
+    if (procedure)
+      func = function(stmt);
 
     if (func && !stmt.startsWith("&"))
     {
@@ -103,9 +152,11 @@ public class SQLParser
 
         if (bindv != null)
         {
+          names.add(sql.substring(i+1,i+1+len));
+
           i += len;
           nsql.append('?');
-          bindings.add(bindv.copy((i == 0 || c == '&')));
+          out.add(i == 0 || c == '&');
         }
         else
         {
@@ -118,18 +169,15 @@ public class SQLParser
       }
     }
 
+    String parsed = nsql.toString();
+
     if (procedure)
     {
-      String proc = nsql.toString();
-      if (!func) this.sql = "call "+proc;
-      else this.sql = "{" + proc.replace("=","= call") + "}";
-    }
-    else
-    {
-      this.sql = nsql.toString();
+      if (!func) parsed = "call "+parsed;
+      else parsed = "{" + parsed.replace("=","= call") + "}";
     }
 
-    logger.finest(this.sql);
+    return(new Template(parsed,func,names,out));
   }
 
 
@@ -171,4 +219,60 @@ public class SQLParser
 
     return(false);
   }
+
+
+  private static class Template
+  {
+    final String sql;
+    final boolean func;
+    final String[] names;
+    final boolean[] out;
+
+    Template(String sql, boolean func, ArrayList<String> names, ArrayList<Boolean> out)
+    {
+      this.sql = sql;
+      this.func = func;
+      this.names = names.toArray(new String[0]);
+      this.out = new boolean[out.size()];
+
+      for (int i = 0; i < this.out.length; i++)
+        this.out[i] = out.get(i);
+    }
+  }
+
+
+  private static class Key
+  {
+    final int hash;
+    final String sql;
+    final String[] names;
+    final boolean procedure;
+
+    Key(String sql, boolean procedure, HashMap<String,BindValueDef> bindvalues)
+    {
+      this.sql = sql;
+      this.procedure = procedure;
+      this.names = bindvalues.keySet().toArray(new String[0]);
+
+      Arrays.sort(names);
+      this.hash = 31*(31*sql.hashCode()+Arrays.hashCode(names))+(procedure ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return(hash);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key)) return(false);
+
+      Key key = (Key) obj;
+
+      return(hash == key.hash && procedure == key.procedure &&
+             sql.equals(key.sql) && Arrays.equals(names,key.names));
+    }
+  }
 }
\ No newline at end of file
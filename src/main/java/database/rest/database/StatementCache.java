@@ -0,0 +1,186 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.database;
+
+import java.util.Map;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *
+ * The prepared statements of one connection by sql, least recently used first.
+ * A statement is taken out while in use and put back when done, so it is never
+ * shared by two requests. DDL makes the cached statements, on all connections,
+ * stale. They are closed when the connection next uses its cache.
+ *
+ */
+public class StatementCache
+{
+  private long generation = ddl.get();
+
+  private final LinkedHashMap<String,Statement> statements =
+    new LinkedHashMap<String,Statement>(16,0.75f,true);
+
+  private static volatile int size = 128;
+
+  private static final AtomicLong ddl = new AtomicLong(0);
+  private static final AtomicLong hits = new AtomicLong(0);
+  private static final AtomicLong misses = new AtomicLong(0);
+  private static final AtomicLong evicted = new AtomicLong(0);
+
+
+  /**
+   *
+   * Statements kept per connection, 0 disables the cache.
+   *
+   */
+  public static void size(int size)
+  {
+    StatementCache.size = size;
+  }
+
+
+  public static int size()
+  {
+    return(size);
+  }
+
+
+  /**
+   *
+   * Called after DDL, that may have changed the objects the statements refer to.
+   *
+   */
+  public static void evict()
+  {
+    ddl.incrementAndGet();
+  }
+
+
+  public static long hits()
+  {
+    return(hits.get());
+  }
+
+
+  public static long misses()
+  {
+    return(misses.get());
+  }
+
+
+  public static long evicted()
+  {
+    return(evicted.get());
+  }
+
+
+  public static long ratio()
+  {
+    long hits = hits();
+    long total = hits + misses();
+
+    if (total == 0) return(0);
+    return((100*hits)/total);
+  }
+
+
+  /**
+   *
+   * The cached statement, removed from the cache while in use, or null.
+   *
+   */
+  synchronized Statement take(String key)
+  {
+    if (size <= 0)
+      return(null);
+
+    stale();
+    Statement stmt = statements.remove(key);
+
+    if (stmt == null) misses.incrementAndGet();
+    else              hits.incrementAndGet();
+
+    return(stmt);
+  }
+
+
+  /**
+   *
+   * Puts back a statement no longer in use. The least recently used statements
+   * are closed when the cache is full.
+   *
+   */
+  synchronized void put(String key, Statement stmt)
+  {
+    if (statements.get(key) == stmt)
+      return;
+
+    if (size <= 0 || generation != ddl.get() || statements.containsKey(key))
+    {
+      close(stmt);
+      return;
+    }
+
+    statements.put(key,stmt);
+    Iterator<Map.Entry<String,Statement>> entries = statements.entrySet().iterator();
+
+    while(statements.size() > size && entries.hasNext())
+    {
+      Statement eldest = entries.next().getValue();
+
+      entries.remove();
+      close(eldest);
+
+      evicted.incrementAndGet();
+    }
+  }
+
+
+  synchronized void clear()
+  {
+    for(Statement stmt : statements.values())
+      close(stmt);
+
+    statements.clear();
+  }
+
+
+  private void stale()
+  {
+    long current = ddl.get();
+    if (generation == current) return;
+
+    clear();
+    generation = current;
+  }
+
+
+  private static void close(Statement stmt)
+  {
+    try {stmt.close();}
+    catch (Exception e) {;}
+  }
+}
\ No newline at end of file
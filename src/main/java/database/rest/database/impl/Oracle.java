@@ -51,6 +51,9 @@ public class Oracle extends Database
   @Override
   public void releaseProxyUser() throws Exception
   {
+    // Statements belong to the proxy session
+    super.clearStatements();
+
     OracleConnection conn = (OracleConnection) super.connection();
     conn.close(OracleConnection.PROXY_SESSION);
   }
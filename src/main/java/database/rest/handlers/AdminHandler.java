@@ -25,11 +25,17 @@ import java.util.logging.Logger;
 import database.rest.config.Config;
 import database.rest.servers.Server;
 import database.rest.control.Launcher;
+import database.rest.pools.ThreadPool;
+import database.rest.servers.http.SSLStatistics;
+import database.rest.handlers.rest.Compression;
 import database.rest.cluster.PreAuthRecord;
+import database.rest.database.StatementCache;
 import database.rest.servers.rest.RESTClient;
 import database.rest.handlers.file.Deployment;
+import database.rest.handlers.file.ContentCache;
 import database.rest.servers.http.HTTPRequest;
 import database.rest.servers.http.HTTPResponse;
+import database.rest.servers.http.HTTPBufferPool;
 import database.rest.handlers.rest.SessionManager;
 import database.rest.config.Handlers.HandlerProperties;
 
@@ -75,7 +81,7 @@ public class AdminHandler extends Handler
         worker = new RESTClient(server,id,started);
 
       server.register(worker);
-      request.respond(response.page());
+      request.respond(response);
 
       worker.init(request.channel());
       return(null);
@@ -93,7 +99,7 @@ public class AdminHandler extends Handler
 
       case "status":
         String status = Launcher.getStatus(config());
-        response.setBody(status);
+        response.setBody(status+executors()+handshakes()+compression()+statements()+content()+buffers());
         break;
 
       case "authenticate":
@@ -112,4 +118,174 @@ public class AdminHandler extends Handler
 
     return(response);
   }
+
+
+  private String executors()
+  {
+    String line = String.format("%63s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "Executors" + nl + line + nl;
+
+    str += "|" + String.format("%8s","stage ");
+    str += "|" + String.format("%9s","threads ");
+    str += "|" + String.format("%9s","running ");
+    str += "|" + String.format("%9s","waiting ");
+    str += "|" + String.format("%9s","limit ");
+    str += "|" + String.format("%12s","shed ");
+    str += "|" + nl + line + nl;
+
+    for(ThreadPool.Stage stage : ThreadPool.stages())
+    {
+      long shed = stage.rejected() + stage.dropped() + stage.expired();
+
+      str += "|" + String.format(" %-7s",stage.name());
+      str += "|" + String.format("%8s ",stage.threads());
+      str += "|" + String.format("%8s ",stage.running());
+      str += "|" + String.format("%8s ",stage.waiting());
+      str += "|" + String.format("%8s ",stage.size());
+      str += "|" + String.format("%11s ",shed);
+      str += "|" + nl;
+    }
+
+    str += line + nl + nl;
+    return(str);
+  }
+
+
+  private String handshakes()
+  {
+    String line = String.format("%61s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "SSL Handshakes" + nl + line + nl;
+
+    str += "|" + String.format("%11s","full ");
+    str += "|" + String.format("%11s","resumed ");
+    str += "|" + String.format("%10s","failed ");
+    str += "|" + String.format("%12s","avg (us) ");
+    str += "|" + String.format("%12s","max (us) ");
+    str += "|" + nl + line + nl;
+
+    str += "|" + String.format("%10s ",SSLStatistics.full());
+    str += "|" + String.format("%10s ",SSLStatistics.resumed());
+    str += "|" + String.format("%9s ",SSLStatistics.failures());
+    str += "|" + String.format("%11s ",SSLStatistics.average());
+    str += "|" + String.format("%11s ",SSLStatistics.max());
+    str += "|" + nl;
+
+    str += line + nl + nl;
+    return(str);
+  }
+
+
+  private String compression()
+  {
+    String line = String.format("%59s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "Compression" + nl + line + nl;
+
+    str += "|" + String.format("%11s","responses ");
+    str += "|" + String.format("%15s","original ");
+    str += "|" + String.format("%15s","compressed ");
+    str += "|" + String.format("%13s","saved ");
+    str += "|" + nl + line + nl;
+
+    str += "|" + String.format("%10s ",Compression.responses());
+    str += "|" + String.format("%14s ",Compression.original());
+    str += "|" + String.format("%14s ",Compression.compressed());
+    str += "|" + String.format("%12s ",Compression.saved());
+    str += "|" + nl;
+
+    str += line + nl + nl;
+    return(str);
+  }
+
+
+  private String statements()
+  {
+    String line = String.format("%55s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "Statement Cache" + nl + line + nl;
+
+    str += "|" + String.format("%8s","size ");
+    str += "|" + String.format("%12s","hits ");
+    str += "|" + String.format("%12s","misses ");
+    str += "|" + String.format("%7s","hit% ");
+    str += "|" + String.format("%10s","evicted ");
+    str += "|" + nl + line + nl;
+
+    str += "|" + String.format("%7s ",StatementCache.size());
+    str += "|" + String.format("%11s ",StatementCache.hits());
+    str += "|" + String.format("%11s ",StatementCache.misses());
+    str += "|" + String.format("%6s ",StatementCache.ratio());
+    str += "|" + String.format("%9s ",StatementCache.evicted());
+    str += "|" + nl;
+
+    str += line + nl + nl;
+    return(str);
+  }
+
+
+  private String content()
+  {
+    ContentCache cache = ContentCache.get();
+
+    String line = String.format("%71s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "Content Cache" + nl + line + nl;
+
+    str += "|" + String.format("%10s","entries ");
+    str += "|" + String.format("%13s","resident ");
+    str += "|" + String.format("%13s","budget ");
+    str += "|" + String.format("%12s","hits ");
+    str += "|" + String.format("%7s","hit% ");
+    str += "|" + String.format("%9s","evicted ");
+    str += "|" + nl + line + nl;
+
+    str += "|" + String.format("%9s ",cache.entries());
+    str += "|" + String.format("%12s ",cache.resident());
+    str += "|" + String.format("%12s ",cache.budget());
+    str += "|" + String.format("%11s ",cache.hits());
+    str += "|" + String.format("%6s ",cache.ratio());
+    str += "|" + String.format("%8s ",cache.evicted());
+    str += "|" + nl;
+
+    str += line + nl + nl;
+    return(str);
+  }
+
+
+  private String buffers()
+  {
+    String line = String.format("%68s"," ").replace(" ","-");
+    String nl = System.lineSeparator();
+
+    String str = "Buffers" + nl + line + nl;
+
+    str += "|" + String.format("%7s","size ");
+    str += "|" + String.format("%12s","hits ");
+    str += "|" + String.format("%10s","misses ");
+    str += "|" + String.format("%13s","outstanding ");
+    str += "|" + String.format("%9s","pooled ");
+    str += "|" + String.format("%10s","dropped ");
+    str += "|" + nl + line + nl;
+
+    for(HTTPBufferPool pool : HTTPBufferPool.pools())
+    {
+      str += "|" + String.format("%6s ",pool.size());
+      str += "|" + String.format("%11s ",pool.hits());
+      str += "|" + String.format("%9s ",pool.misses());
+      str += "|" + String.format("%12s ",pool.outstanding());
+      str += "|" + String.format("%8s ",pool.pooled());
+      str += "|" + String.format("%9s ",pool.dropped());
+      str += "|" + nl;
+    }
+
+    str += line + nl + nl;
+    return(str);
+  }
 }
\ No newline at end of file
@@ -21,8 +21,11 @@
 
 package database.rest.handlers;
 
+import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.nio.channels.FileChannel;
 import database.rest.config.Config;
 import database.rest.handlers.file.PathUtil;
 import database.rest.handlers.file.Deployment;
@@ -37,6 +40,8 @@ public class FileHandler extends Handler
   private final PathUtil path;
   private final Logger logger = Logger.getLogger("http");
 
+  private static final int MAXRANGES = 16;
+
 
   public FileHandler(Config config, HandlerProperties properties) throws Exception
   {
@@ -106,34 +111,61 @@ public class FileHandler extends Handler
       return(response);
     }
 
+    String range = request.getHeader("Range");
+    String ifrange = request.getHeader("If-Range");
+    String matches = request.getHeader("If-None-Match");
+
+    boolean gzip = false;
+
+    // Ranges are served from the identity form
+    if (file.compressed && range == null)
+      gzip = (encodings != null && encodings.contains("gzip"));
+
+    String etag = etag(file,gzip);
+
     boolean reload = true;
     String changed = Deployment.modstring();
 
-    if (modified != null && modified.equals(changed))
+    // Cache-Control in the request is for caches, a matching etag is always not modified
+    if (matches != null)
     {
-      reload = false;
-
-      if (caching != null && (caching.contains("max-age=0") || caching.contains("no-cache")))
-        reload = true;
+      reload = !matches(matches,etag);
+    }
+    else if (modified != null && modified.equals(changed))
+    {
+      reload = caching != null && (caching.contains("max-age=0") || caching.contains("no-cache"));
     }
 
     if (!reload)
     {
       // Send Not modified
       response.setResponse(304);
+      headers(response,file,etag);
       log(logger,request,response);
       return(response);
     }
 
-    boolean gzip = false;
-    byte[] content = null;
-
-    if (file.compressed)
-      gzip = (encodings != null && encodings.contains("gzip"));
+    long length = 0;
+    ByteBuffer content = null;
+    FileChannel channel = null;
 
     try
     {
-      content = file.get(gzip);
+      // Large files, that are not cached or to be decompressed, are sent from disk
+      length = file.length();
+      int transfer = config().getHTTP().transfer;
+
+      if (!file.cache && gzip == file.compressed && length >= transfer)
+      {
+        channel = file.open();
+        length = channel.size();
+      }
+      else
+      {
+        content = file.get(gzip);
+        length = content.remaining();
+      }
+
       if (gzip) response.setHeader("Content-Encoding","gzip");
     }
     catch (Exception e)
@@ -149,15 +181,192 @@ public class FileHandler extends Handler
     String ext = file.fileext();
     String mimetype = config().getHTTP().mimetypes.get(ext);
 
-    response.setBody(content);
-    response.setContentType(mimetype);
-    response.setLastModified(Deployment.modstring(),Deployment.modified());
+    long[][] ranges = null;
+
+    // A stale If-Range means the whole file
+    if (range != null && (ifrange == null || ifrange.equals(etag) || ifrange.equals(changed)))
+      ranges = ranges(range,length);
+
+    headers(response,file,etag);
+    response.setHeader("Accept-Ranges","bytes");
+    response.setHeader("Last-Modified",changed);
+
+    if (ranges == null)
+    {
+      if (channel == null) response.setBody(content);
+      else                 response.setBody(channel,length);
+
+      response.setContentType(mimetype);
+    }
+    else if (ranges.length == 0)
+    {
+      if (channel != null) channel.close();
+
+      response.setResponse(416);
+      response.setHeader("Content-Range","bytes */"+length);
+    }
+    else if (ranges.length == 1)
+    {
+      long first = ranges[0][0];
+      long last = ranges[0][1];
+
+      response.setResponse(206);
+      response.setContentType(mimetype);
+      response.setHeader("Content-Range","bytes "+first+"-"+last+"/"+length);
+
+      if (channel == null) response.setBody(slice(content,first,last));
+      else                 response.setBody(channel,first,last-first+1);
+    }
+    else
+    {
+      String boundary = Long.toHexString(System.nanoTime());
+      ByteBuffer[] parts = new ByteBuffer[2*ranges.length+1];
+
+      if (channel != null)
+        content = channel.map(FileChannel.MapMode.READ_ONLY,0,length);
+
+      for (int i = 0; i < ranges.length; i++)
+      {
+        long first = ranges[i][0];
+        long last = ranges[i][1];
+
+        String head = "\r\n--" + boundary + "\r\n" +
+                      "Content-Type: " + mimetype + "\r\n" +
+                      "Content-Range: bytes " + first + "-" + last + "/" + length + "\r\n\r\n";
+
+        parts[2*i] = ByteBuffer.wrap(head.getBytes());
+        parts[2*i+1] = slice(content,first,last);
+      }
+
+      parts[parts.length-1] = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes());
+
+      if (channel != null) channel.close();
+
+      response.setResponse(206);
+      response.setBody(parts);
+      response.setContentType("multipart/byteranges; boundary="+boundary);
+    }
 
     log(logger,request,response);
     return(response);
   }
 
 
+  /**
+   *
+   * Per file and encoding, from the content hash computed at deployment.
+   *
+   */
+  private String etag(StaticFile file, boolean gzip)
+  {
+    if (gzip) return("\""+file.etag+"-gz\"");
+    return("\""+file.etag+"\"");
+  }
+
+
+  private void headers(HTTPResponse response, StaticFile file, String etag)
+  {
+    response.setHeader("ETag",etag);
+
+    if (file.compressed)
+      response.setHeader("Vary","Accept-Encoding");
+
+    if (file.immutable)
+      response.setHeader("Cache-Control","public, max-age=31536000, immutable");
+  }
+
+
+  /**
+   *
+   * If-None-Match uses weak comparison, i.e. W/ is ignored.
+   *
+   */
+  private boolean matches(String header, String etag)
+  {
+    for(String tag : header.split(","))
+    {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) tag = tag.substring(2);
+      if (tag.equals("*") || tag.equals(etag)) return(true);
+    }
+
+    return(false);
+  }
+
+
+  /**
+   *
+   * The ranges as first and last byte, empty if none can be satisfied,
+   * or null if the header is invalid or asks for too many ranges.
+   *
+   */
+  private long[][] ranges(String header, long length)
+  {
+    if (!header.startsWith("bytes="))
+      return(null);
+
+    String[] specs = header.substring(6).split(",");
+
+    if (specs.length > MAXRANGES)
+      return(null);
+
+    int n = 0;
+    long[][] ranges = new long[specs.length][];
+
+    try
+    {
+      for(String spec : specs)
+      {
+        spec = spec.trim();
+        int pos = spec.indexOf('-');
+
+        if (pos < 0)
+          return(null);
+
+        long first = 0;
+        long last = length - 1;
+
+        String from = spec.substring(0,pos).trim();
+        String to = spec.substring(pos+1).trim();
+
+        if (from.length() == 0)
+        {
+          // The last bytes
+          if (to.length() == 0) return(null);
+          first = Math.max(0,length - Long.parseLong(to));
+        }
+        else
+        {
+          first = Long.parseLong(from);
+          if (to.length() > 0) last = Math.min(last,Long.parseLong(to));
+          if (to.length() > 0 && Long.parseLong(to) < first) return(null);
+        }
+
+        if (first <= last && first < length)
+          ranges[n++] = new long[] {first,last};
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      return(null);
+    }
+
+    return(Arrays.copyOf(ranges,n));
+  }
+
+
+  private ByteBuffer slice(ByteBuffer content, long first, long last)
+  {
+    ByteBuffer slice = content.duplicate();
+    int base = content.position();
+
+    slice.position(base+(int) first);
+    slice.limit(base+(int) last+1);
+
+    return(slice);
+  }
+
+
   private void log(Logger logger, HTTPRequest request, HTTPResponse response)
   {
     long time = System.nanoTime() - request.start();
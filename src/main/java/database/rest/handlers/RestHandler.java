@@ -29,10 +29,13 @@ import database.rest.config.Config;
 import database.rest.servers.Server;
 import database.rest.handlers.rest.Guid;
 import database.rest.handlers.rest.Rest;
+import database.rest.handlers.rest.Compression;
+import database.rest.servers.http.HTTPChunked;
 import database.rest.handlers.file.PathUtil;
 import database.rest.servers.rest.RESTClient;
 import database.rest.servers.http.HTTPRequest;
 import database.rest.servers.http.HTTPResponse;
+import database.rest.handlers.rest.ResultStream;
 import database.rest.handlers.rest.JSONFormatter;
 import database.rest.config.Handlers.HandlerProperties;
 
@@ -157,9 +160,23 @@ public class RestHandler extends Handler
     if (qret != null) returning = Boolean.parseBoolean(qret);
 
     Rest rest = new Rest(server,savepoint,remote);
+    ResultStream stream = stream(request,response);
 
+    rest.stream(stream);
     response.setContentType(json);
-    response.setBody(rest.execute(path,payload,returning));
+
+    String result = rest.execute(path,payload,returning);
+
+    if (stream != null && stream.started())
+    {
+      finish(stream,result);
+      log(logger,request,response);
+      return(null);
+    }
+
+    if (result == null && stream != null) response.setBody(stream.bytes());
+    else                                  response.setBody(result);
+
     response.setResponse(rest.response());
 
     if (rest.isConnectRequest())
@@ -168,10 +185,89 @@ public class RestHandler extends Handler
     if (!rest.isPing() || logger.getLevel() == Level.FINEST)
       log(logger,request,response);
 
+    compress(request,response);
     return(response);
   }
 
 
+  /**
+   *
+   * Selects are streamed to HTTP/1.1 clients, unless the responses are logged in full.
+   *
+   */
+  private ResultStream stream(HTTPRequest request, HTTPResponse response) throws Exception
+  {
+    if (!config().getREST().stream)
+      return(null);
+
+    if (logger.getLevel() == Level.FINE || logger.getLevel() == Level.FINEST)
+      return(null);
+
+    if (!HTTPChunked.supported(request))
+      return(null);
+
+    String encoding = null;
+    int chunk = config().getREST().chunk;
+    int level = config().getREST().compresslevel;
+
+    if (config().getREST().compress)
+      encoding = Compression.encoding(request.getHeader("Accept-Encoding"));
+
+    return(new ResultStream(request,response,encoding,level,chunk));
+  }
+
+
+  /**
+   *
+   * Ends a streamed result. The status has been sent, so a select that fails
+   * midway can only be reported by closing the connection.
+   *
+   */
+  private void finish(ResultStream stream, String result)
+  {
+    if (result != null)
+    {
+      logger.warning("Streamed select failed: "+result);
+      stream.abort();
+      return;
+    }
+
+    try
+    {
+      stream.close();
+    }
+    catch (Exception e)
+    {
+      logger.warning("Streamed select not completed: "+e.getMessage());
+      stream.abort();
+    }
+  }
+
+
+  /**
+   *
+   * Large results, i.e. selects, are compressed if the client accepts it.
+   * Done after logging, the log shows the json as is.
+   *
+   */
+  private void compress(HTTPRequest request, HTTPResponse response) throws Exception
+  {
+    byte[] body = response.body();
+    int level = config().getREST().compresslevel;
+    int minsize = config().getREST().compressmin;
+
+    if (!config().getREST().compress || body == null || body.length < minsize)
+      return;
+
+    String encoding = Compression.encoding(request.getHeader("Accept-Encoding"));
+    if (encoding == null) return;
+
+    response.setBody(Compression.compress(encoding,body,level));
+    response.setHeader("Content-Encoding",encoding);
+    response.setHeader("Vary","Accept-Encoding");
+  }
+
+
   public static short getClient(Config config, HTTPRequest request) throws Exception
   {
     Server server = request.server();
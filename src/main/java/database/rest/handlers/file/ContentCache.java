@@ -0,0 +1,190 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.file;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *
+ * Content of static files, shared by all handlers, within a memory budget.
+ * The least recently used files are evicted first. Gzip and identity forms of
+ * a compressed file are separate entries. Off heap, the content is kept in
+ * direct buffers, that are written to the socket without copying.
+ *
+ */
+public class ContentCache
+{
+  private long size = 0;
+  private final long budget;
+  private final boolean offheap;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evicted = new AtomicLong(0);
+
+  private final LinkedHashMap<String,ByteBuffer> entries =
+    new LinkedHashMap<String,ByteBuffer>(1024,0.75f,true);
+
+  private static ContentCache cache = new ContentCache(0,false);
+
+
+  public static synchronized void init(long budget, boolean offheap)
+  {
+    cache = new ContentCache(budget,offheap);
+  }
+
+
+  public static ContentCache get()
+  {
+    return(cache);
+  }
+
+
+  private ContentCache(long budget, boolean offheap)
+  {
+    this.budget = budget;
+    this.offheap = offheap;
+  }
+
+
+  /**
+   *
+   * A read-only view of the cached content, or null.
+   *
+   */
+  public synchronized ByteBuffer get(String key)
+  {
+    ByteBuffer content = entries.get(key);
+
+    if (content == null)
+    {
+      misses.incrementAndGet();
+      return(null);
+    }
+
+    hits.incrementAndGet();
+    return(content.duplicate());
+  }
+
+
+  /**
+   *
+   * Caches the content if it fits, evicting the least recently used.
+   * Returns a read-only view of the content either way.
+   *
+   */
+  public ByteBuffer put(String key, byte[] content)
+  {
+    if (content.length > budget)
+      return(ByteBuffer.wrap(content).asReadOnlyBuffer());
+
+    ByteBuffer buffer = null;
+
+    if (!offheap)
+    {
+      buffer = ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+    else
+    {
+      buffer = ByteBuffer.allocateDirect(content.length);
+      buffer.put(content).flip();
+      buffer = buffer.asReadOnlyBuffer();
+    }
+
+    synchronized(this)
+    {
+      ByteBuffer replaced = entries.put(key,buffer);
+      if (replaced != null) size -= replaced.capacity();
+
+      size += buffer.capacity();
+      Iterator<Entry<String,ByteBuffer>> eldest = entries.entrySet().iterator();
+
+      while(size > budget && eldest.hasNext())
+      {
+        Entry<String,ByteBuffer> entry = eldest.next();
+        if (entry.getValue() == buffer) continue;
+
+        size -= entry.getValue().capacity();
+        evicted.incrementAndGet();
+        eldest.remove();
+      }
+    }
+
+    return(buffer.duplicate());
+  }
+
+
+  public long budget()
+  {
+    return(budget);
+  }
+
+
+  public synchronized long resident()
+  {
+    return(size);
+  }
+
+
+  public synchronized int entries()
+  {
+    return(entries.size());
+  }
+
+
+  public long hits()
+  {
+    return(hits.get());
+  }
+
+
+  public long misses()
+  {
+    return(misses.get());
+  }
+
+
+  public long evicted()
+  {
+    return(evicted.get());
+  }
+
+
+  /**
+   *
+   * Hits in percent of lookups.
+   *
+   */
+  public long ratio()
+  {
+    long hits = this.hits.get();
+    long lookups = hits + misses.get();
+
+    if (lookups == 0) return(0);
+    return(100 * hits / lookups);
+  }
+}
\ No newline at end of file
@@ -23,20 +23,38 @@ package database.rest.handlers.file;
 
 import java.io.File;
 import java.util.Date;
+import java.time.Instant;
+import java.util.HashMap;
+import java.nio.file.Path;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.io.Serializable;
+import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.file.WatchKey;
+import java.util.regex.Pattern;
+import java.time.ZoneOffset;
 import java.io.FileInputStream;
 import java.util.logging.Logger;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.text.SimpleDateFormat;
+import java.nio.file.WatchEvent;
+import java.nio.file.FileSystems;
+import java.time.ZonedDateTime;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
 import database.rest.config.Config;
 import java.io.ByteArrayInputStream;
+import java.nio.channels.FileChannel;
 import java.util.zip.GZIPInputStream;
+import java.nio.file.FileVisitResult;
 import java.util.zip.GZIPOutputStream;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RecursiveAction;
+import java.time.format.DateTimeFormatter;
 import database.rest.config.HTTP.FilePattern;
 import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.attribute.BasicFileAttributes;
+import static java.nio.file.StandardWatchEventKinds.*;
 
 
 public class Deployment
@@ -57,10 +75,14 @@ public class Deployment
   private long modified = 0;
   private Date moddate = null;
   private String modstring = null;
-  private ConcurrentHashMap<String,StaticFile> index = null;
+  private DeploymentIndex index = null;
+
+  private WatchService watcher = null;
+  private final HashMap<WatchKey,Path> watched = new HashMap<WatchKey,Path>();
 
   private static final String sep = File.separator;
-  private static final SimpleDateFormat format = new SimpleDateFormat("EEE, d MMM YYYY hh:mm:ss z");
+  private static final int BUFSIZE = 64 * 1024;
+  private static final DateTimeFormatter format = DateTimeFormatter.RFC_1123_DATE_TIME;
 
 
   public static Deployment get()
@@ -84,6 +106,8 @@ public class Deployment
     this.home = this.config.getHTTP().getAppPath();
     this.deploy = this.config.getHTTP().getTmpPath();
     this.compression = this.config.getHTTP().compression;
+
+    ContentCache.init(config.getHTTP().cachesize,config.getHTTP().offheap);
   }
 
 
@@ -99,6 +123,17 @@ public class Deployment
   }
 
 
+  /**
+   *
+   * As Last-Modified, i.e. RFC 1123 in GMT. If-Modified-Since and If-Range are compared with it.
+   *
+   */
+  private static String format(Date date)
+  {
+    return(format.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(date.getTime()),ZoneOffset.UTC)));
+  }
+
+
   public StaticFile get(String path) throws Exception
   {
     if (this.index == null)
@@ -127,7 +162,6 @@ public class Deployment
   }
 
 
-  @SuppressWarnings("unchecked")
   public synchronized boolean index() throws Exception
   {
     long latest = latest();
@@ -135,23 +169,15 @@ public class Deployment
 
     Date modified = new Date(latest);
     String deployment = this.deploy + sep + latest;
-    if (!(new File(deployment).exists())) return(false);
+    if (!DeploymentIndex.valid(deployment)) return(false);
 
     logger.info("Indexing website");
-
-    ConcurrentHashMap<String,StaticFile> index =
-      new ConcurrentHashMap<String,StaticFile>();
-
-    FileInputStream fin = new FileInputStream(deployment + sep + ".index");
-    ObjectInputStream oin = new ObjectInputStream(fin);
-
-    index = (ConcurrentHashMap<String,StaticFile>) oin.readObject();
-    oin.close();
+    DeploymentIndex index = DeploymentIndex.open(deployment);
 
     this.index = index;
     this.modified = latest;
     this.moddate = modified;
-    this.modstring = format.format(modified);
+    this.modstring = format(modified);
 
     return(true);
   }
@@ -188,28 +214,31 @@ public class Deployment
     ConcurrentHashMap<String,StaticFile> index =
       new ConcurrentHashMap<String,StaticFile>();
 
+    // Deployed by an older version, without a valid index
+    if (new File(dep).exists() && !DeploymentIndex.valid(dep))
+      delete(new File(dep));
+
     if (!(new File(dep).exists()))
     {
       if (logger.getHandlers().length < 0)
         logger.info("Deploying website");
 
-      deploy(index,this.home,tmp,dep);
-
-      File deployed = new File(tmp);
-      deployed.renameTo(new File(dep));
+      long started = System.currentTimeMillis();
+      DeploymentIndex previous = previous();
 
-      FileOutputStream fout = new FileOutputStream(dep + sep +".index");
-      ObjectOutputStream oout = new ObjectOutputStream(fout);
+      new Deploy(index,previous,this.home,tmp,dep).invoke();
+      logger.info("Deployed "+index.size()+" files in "+(System.currentTimeMillis()-started)+" ms");
 
-      oout.writeObject(index);
+      // Written before the rename, the deployment is complete when it appears
+      DeploymentIndex.write(tmp,index.values());
 
-      oout.close();
-      fout.close();
+      File deployed = new File(tmp);
+      deployed.renameTo(new File(dep));
 
-      this.index = index;
+      this.index = DeploymentIndex.open(dep);
       this.moddate = modified;
       this.modified = home.lastModified();
-      this.modstring = format.format(modified);
+      this.modstring = format(modified);
 
       synchronized(this) {this.notifyAll();}
       this.cleanup();
@@ -217,66 +246,126 @@ public class Deployment
   }
 
 
-  private void deploy(ConcurrentHashMap<String,StaticFile> index, String fr, String to, String dest) throws Exception
+  /**
+   *
+   * The index of the current deployment, if any, to reuse unchanged files from.
+   *
+   */
+  private DeploymentIndex previous()
   {
-    File source = new File(fr);
-    File target = new File(to);
+    if (this.index != null)
+      return(this.index);
 
-    String[] entries = source.list();
-    if (!target.exists()) target.mkdirs();
+    try
+    {
+      long latest = latest();
+      String deployment = this.deploy + sep + latest;
 
-    for(String entry : entries)
+      if (latest > 0 && DeploymentIndex.valid(deployment))
+        return(DeploymentIndex.open(deployment));
+    }
+    catch (Exception e)
     {
-      String dfr = fr + sep + entry;
-      String dto = to + sep + entry;
-      String des = dest + sep + entry;
+      logger.warning("Unable to read previous deployment, "+e.getMessage());
+    }
 
-      File deploy = new File(dfr);
-      if (deploy.isDirectory())
-      {
-        deploy(index,dfr,dto,des);
-      }
-      else
-      {
-        boolean cache = false;
-        boolean compress = false;
-        long size = deploy.length();
-        dfr = dfr.substring(this.home.length());
+    return(null);
+  }
 
-        for(FilePattern fpatrn : this.compression)
-        {
-          if (size >= fpatrn.size && deploy.getName().matches(fpatrn.pattern))
-            compress = true;
-        }
 
-        if (!compress) size = copy(deploy,dto);
-        else           size = compress(deploy,dto);
+  private void deploy(ConcurrentHashMap<String,StaticFile> index, DeploymentIndex previous, String dfr, String dto, String des) throws Exception
+  {
+    boolean cache = false;
+    boolean compress = false;
 
-        for(FilePattern fpatrn : this.cache)
-        {
-          if (size <= fpatrn.size && deploy.getName().matches(fpatrn.pattern))
-            cache = true;
-        }
+    File deploy = new File(dfr);
+    long size = deploy.length();
 
-        String vpath = dfr.replaceAll("\\\\","/");
-        index.put(vpath,new StaticFile(vpath,des,cache,compress));
-      }
+    dfr = dfr.substring(this.home.length());
+    String vpath = dfr.replaceAll("\\\\","/");
+
+    for(FilePattern fpatrn : this.compression)
+    {
+      if (size >= fpatrn.size && deploy.getName().matches(fpatrn.pattern))
+        compress = true;
+    }
+
+    String etag = null;
+    StaticFile prev = previous == null ? null : previous.get(vpath);
+
+    // Unchanged content is linked from the previous deployment, not copied or compressed again
+    if (prev != null && prev.etag != null && prev.compressed == compress && new File(prev.actpath).exists())
+    {
+      etag = hash(deploy);
+
+      if (etag.equals(prev.etag)) size = reuse(prev.actpath,dto);
+      else etag = null;
     }
+
+    if (etag == null)
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+      if (!compress) size = copy(deploy,dto,digest);
+      else           size = compress(deploy,dto,digest);
+
+      etag = etag(digest);
+    }
+
+    for(FilePattern fpatrn : this.cache)
+    {
+      if (size <= fpatrn.size && deploy.getName().matches(fpatrn.pattern))
+        cache = true;
+    }
+
+    index.put(vpath,new StaticFile(vpath,des,etag,size,cache,compress));
+  }
+
+
+  private int reuse(String artifact, String file) throws Exception
+  {
+    Path target = new File(file).toPath();
+    Path source = new File(artifact).toPath();
+
+    try {Files.createLink(target,source);}
+    catch (Exception e) {Files.copy(source,target);}
+
+    return((int) Files.size(target));
+  }
+
+
+  private String hash(File file) throws Exception
+  {
+    int read = 0;
+    byte[] buf = new byte[BUFSIZE];
+
+    FileInputStream in = new FileInputStream(file);
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+    while(read >= 0)
+    {
+      read = in.read(buf);
+      if (read > 0) digest.update(buf,0,read);
+    }
+
+    in.close();
+    return(etag(digest));
   }
 
 
-  public int copy(File ifile, String file) throws Exception
+  public int copy(File ifile, String file, MessageDigest digest) throws Exception
   {
     FileInputStream in = new FileInputStream(ifile);
     FileOutputStream out = new FileOutputStream(file);
 
     int read = 0;
-    byte[] buf = new byte[4096];
+    byte[] buf = new byte[BUFSIZE];
 
     while(read >= 0)
     {
       read = in.read(buf);
       if (read > 0) out.write(buf,0,read);
+      if (read > 0) digest.update(buf,0,read);
     }
 
     out.close();
@@ -286,19 +375,20 @@ public class Deployment
   }
 
 
-  public int compress(File ifile, String file) throws Exception
+  public int compress(File ifile, String file, MessageDigest digest) throws Exception
   {
     FileInputStream in = new FileInputStream(ifile);
     FileOutputStream out = new FileOutputStream(file);
-    GZIPOutputStream gout = new GZIPOutputStream(out);
+    GZIPOutputStream gout = new GZIPOutputStream(out,BUFSIZE);
 
     int read = 0;
-    byte[] buf = new byte[4096];
+    byte[] buf = new byte[BUFSIZE];
 
     while(read >= 0)
     {
       read = in.read(buf);
       if (read > 0) gout.write(buf,0,read);
+      if (read > 0) digest.update(buf,0,read);
     }
 
     gout.close();
@@ -310,6 +400,31 @@ public class Deployment
   }
 
 
+  /**
+   *
+   * A strong ETag, from the content as deployed, not the time of deployment.
+   * Unchanged files keep their ETag when the site is redeployed.
+   *
+   */
+  private static String etag(MessageDigest digest)
+  {
+    byte[] hash = digest.digest();
+    StringBuilder etag = new StringBuilder(16);
+
+    for (int i = 0; i < 8; i++)
+      etag.append(String.format("%02x",hash[i]));
+
+    return(etag.toString());
+  }
+
+
+  /**
+   *
+   * Marks the app folder as modified when anything in it has changed. The tree is
+   * scanned once, after that a WatchService reports the changes. Without one, or if
+   * events were lost, the tree is scanned again.
+   *
+   */
   public void sync() throws Exception
   {
     long synched = System.currentTimeMillis();
@@ -318,8 +433,84 @@ public class Deployment
     this.synched = synched;
     File home = new File(this.home);
 
+    if (watcher != null)
+    {
+      int changes = changes();
+
+      if (changes == 0) return;
+      if (changes > 0) {home.setLastModified(synched); return;}
+    }
+
     long mod = latest(home);
     home.setLastModified(mod);
+
+    if (watcher == null) watch(home);
+  }
+
+
+  private void watch(File home)
+  {
+    try
+    {
+      watcher = FileSystems.getDefault().newWatchService();
+      register(home.toPath());
+    }
+    catch (Exception e)
+    {
+      logger.warning("Unable to watch "+this.home+", "+e.getMessage());
+      watcher = null;
+    }
+  }
+
+
+  private void register(Path folder) throws Exception
+  {
+    Files.walkFileTree(folder,new SimpleFileVisitor<Path>()
+    {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+      {
+        watched.put(dir.register(watcher,ENTRY_CREATE,ENTRY_DELETE,ENTRY_MODIFY),dir);
+        return(FileVisitResult.CONTINUE);
+      }
+    });
+  }
+
+
+  /**
+   *
+   * The number of changes since last time, or -1 if events were lost.
+   *
+   */
+  private int changes() throws Exception
+  {
+    WatchKey key = null;
+    int changes = 0;
+
+    while((key = watcher.poll()) != null)
+    {
+      Path folder = watched.get(key);
+
+      for(WatchEvent<?> event : key.pollEvents())
+      {
+        if (event.kind() == OVERFLOW)
+        {
+          changes = -1;
+          continue;
+        }
+
+        if (changes >= 0) changes++;
+        Path path = folder.resolve((Path) event.context());
+
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+          register(path);
+      }
+
+      if (!key.reset())
+        watched.remove(key);
+    }
+
+    return(changes);
   }
 
 
@@ -419,23 +610,84 @@ public class Deployment
   }
 
 
-  public static class StaticFile implements Serializable
+  /**
+   *
+   * Deploys a folder, with its files and subfolders as subtasks, so that
+   * files are copied and compressed in parallel by the fork join pool.
+   *
+   */
+  private class Deploy extends RecursiveAction
   {
+    private final String fr;
+    private final String to;
+    private final String dest;
+    private final ConcurrentHashMap<String,StaticFile> index;
+    private final transient DeploymentIndex previous;
+
+    private static final long serialVersionUID = 1L;
+
+
+    Deploy(ConcurrentHashMap<String,StaticFile> index, DeploymentIndex previous, String fr, String to, String dest)
+    {
+      this.fr = fr;
+      this.to = to;
+      this.dest = dest;
+      this.index = index;
+      this.previous = previous;
+    }
+
+
+    @Override
+    protected void compute()
+    {
+      File source = new File(fr);
+
+      try
+      {
+        if (!source.isDirectory())
+        {
+          deploy(index,previous,fr,to,dest);
+          return;
+        }
+
+        File target = new File(to);
+        if (!target.exists()) target.mkdirs();
+
+        ArrayList<Deploy> tasks = new ArrayList<Deploy>();
+
+        for(String entry : source.list())
+          tasks.add(new Deploy(index,previous,fr + sep + entry,to + sep + entry,dest + sep + entry));
+
+        invokeAll(tasks);
+      }
+      catch (Exception e)
+      {
+        throw new IllegalStateException("Unable to deploy "+source,e);
+      }
+    }
+  }
+
+
+  public static class StaticFile
+  {
+    public final long size;
+    public final String etag;
     public final String fileext;
     public final String virpath;
     public final String actpath;
 
     public final boolean cache;
+    public final boolean immutable;
     public final boolean compressed;
 
-    private transient byte[] content = null;
+    // Names with a content hash, i.e. app.3f2a9c1b.js or index-BxZ3k9aQ.js, never change
+    private static final Pattern fingerprint = Pattern.compile(".+[.-](?=[A-Za-z0-9_]*[0-9])[A-Za-z0-9_]{8,}\\.[A-Za-z0-9]+");
 
-    @SuppressWarnings("compatibility:-4436880408631246090")
-    private static final long serialVersionUID = 5613263707445370115L;
 
-
-    StaticFile(String virpath, String actpath, boolean cache, boolean compressed)
+    StaticFile(String virpath, String actpath, String etag, long size, boolean cache, boolean compressed)
     {
+      this.size = size;
+      this.etag = etag;
       this.cache = cache;
       this.virpath = virpath;
       this.actpath = actpath;
@@ -444,27 +696,40 @@ public class Deployment
 
       if (pos < 0) this.fileext = "";
       else this.fileext = virpath.substring(pos+1);
+
+      String name = virpath.substring(virpath.lastIndexOf('/')+1);
+      this.immutable = fingerprint.matcher(name).matches();
     }
 
 
-    public byte[] get(boolean gzip) throws Exception
+    /**
+     *
+     * The content, gzip'ed if requested and the file is deployed compressed.
+     * Files that match a cache pattern are cached in both forms, separately.
+     *
+     */
+    public ByteBuffer get(boolean gzip) throws Exception
     {
-      boolean usecache = true;
-      if (compressed && !gzip) usecache = false;
-      if (usecache && content != null) return(content);
+      gzip = gzip && compressed;
+      String key = gzip ? actpath + ":gzip" : actpath;
+
+      ContentCache cache = ContentCache.get();
+
+      if (this.cache)
+      {
+        ByteBuffer content = cache.get(key);
+        if (content != null) return(content);
+      }
 
       File file = new File(actpath);
 
       if (!file.exists())
         throw new Exception("File "+actpath+" not found");
 
-      gzip = gzip && compressed;
       byte[] content = read(file,gzip);
 
-      if (cache && usecache)
-        this.content = content;
-
-      return(content);
+      if (!this.cache) return(ByteBuffer.wrap(content));
+      return(cache.put(key,content));
     }
 
 
@@ -474,6 +739,28 @@ public class Deployment
     }
 
 
+    /**
+     *
+     * The size of the deployed file, i.e. compressed if the file is compressed.
+     *
+     */
+    public long length()
+    {
+      return(size);
+    }
+
+
+    /**
+     *
+     * The deployed file, to be sent as is, without reading it into memory.
+     *
+     */
+    public FileChannel open() throws Exception
+    {
+      return(FileChannel.open(new File(actpath).toPath(),StandardOpenOption.READ));
+    }
+
+
     private byte[] read(File file, boolean gzip) throws Exception
     {
       byte[] content = new byte[(int) file.length()];
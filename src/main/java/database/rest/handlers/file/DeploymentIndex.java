@@ -0,0 +1,229 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.file;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import database.rest.handlers.file.Deployment.StaticFile;
+
+
+/**
+ *
+ * The index of a deployment, written once and memory mapped by every server
+ * process that serves the deployment. Opening it only maps the file, entries
+ * are looked up in a hash table within the file and decoded when first used.
+ *
+ * Layout (big endian):
+ *   header  : magic, version, entries, buckets
+ *   buckets : offset of the first record in each bucket, 0 if none
+ *   records : next, hash, flags, size, etag (8 bytes), path length, path (utf-8)
+ *
+ */
+public class DeploymentIndex
+{
+  private final int count;
+  private final int buckets;
+  private final ByteBuffer index;
+  private final String deployment;
+
+  private final ConcurrentHashMap<String,StaticFile> files =
+    new ConcurrentHashMap<String,StaticFile>();
+
+  private static final int VERSION = 1;
+  private static final int HEADER = 16;
+  private static final int MAGIC = 0x44424a58;
+
+  private static final int CACHE = 0x1;
+  private static final int COMPRESSED = 0x2;
+
+  static final String NAME = ".index";
+  private static final String sep = File.separator;
+
+
+  public static DeploymentIndex open(String deployment) throws Exception
+  {
+    FileChannel channel = FileChannel.open(new File(deployment + sep + NAME).toPath(),StandardOpenOption.READ);
+
+    try
+    {
+      ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+      return(new DeploymentIndex(deployment,index));
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+
+  /**
+   *
+   * The deployment has an index in this format, i.e. not from an older version.
+   *
+   */
+  public static boolean valid(String deployment)
+  {
+    File file = new File(deployment + sep + NAME);
+    if (file.length() < HEADER) return(false);
+
+    try
+    {
+      open(deployment);
+      return(true);
+    }
+    catch (Exception e)
+    {
+      return(false);
+    }
+  }
+
+
+  public static void write(String deployment, Collection<StaticFile> files) throws Exception
+  {
+    int buckets = 16;
+    while(buckets < 2 * files.size()) buckets <<= 1;
+
+    int[] heads = new int[buckets];
+    int base = HEADER + 4 * buckets;
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * files.size());
+    DataOutputStream records = new DataOutputStream(bytes);
+
+    for(StaticFile file : files)
+    {
+      int pos = base + records.size();
+      int hash = file.virpath.hashCode();
+      int bucket = hash & (buckets - 1);
+
+      int flags = 0;
+      if (file.cache) flags |= CACHE;
+      if (file.compressed) flags |= COMPRESSED;
+
+      byte[] path = file.virpath.getBytes(StandardCharsets.UTF_8);
+
+      records.writeInt(heads[bucket]);
+      records.writeInt(hash);
+      records.writeByte(flags);
+      records.writeLong(file.size);
+      records.writeLong(Long.parseUnsignedLong(file.etag,16));
+      records.writeShort(path.length);
+      records.write(path);
+
+      heads[bucket] = pos;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(base);
+
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(files.size());
+    header.putInt(buckets);
+
+    for (int i = 0; i < buckets; i++)
+      header.putInt(heads[i]);
+
+    FileOutputStream out = new FileOutputStream(deployment + sep + NAME);
+
+    out.write(header.array());
+    bytes.writeTo(out);
+
+    out.close();
+  }
+
+
+  private DeploymentIndex(String deployment, ByteBuffer index) throws Exception
+  {
+    if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION)
+      throw new Exception("Deployment index "+deployment+" has unknown format");
+
+    this.index = index;
+    this.deployment = deployment;
+    this.count = index.getInt(8);
+    this.buckets = index.getInt(12);
+  }
+
+
+  public int size()
+  {
+    return(count);
+  }
+
+
+  /**
+   *
+   * Absolute reads only, the mapped buffer is shared by all threads.
+   *
+   */
+  public StaticFile get(String path)
+  {
+    StaticFile file = files.get(path);
+    if (file != null) return(file);
+
+    int hash = path.hashCode();
+    int pos = index.getInt(HEADER + 4 * (hash & (buckets - 1)));
+
+    while(pos != 0)
+    {
+      if (index.getInt(pos+4) == hash)
+      {
+        int len = index.getShort(pos+25) & 0xFFFF;
+
+        byte[] bytes = new byte[len];
+        index.get(pos+27,bytes);
+
+        String virpath = new String(bytes,StandardCharsets.UTF_8);
+
+        if (virpath.equals(path))
+        {
+          file = decode(pos,virpath);
+          files.put(path,file);
+          return(file);
+        }
+      }
+
+      pos = index.getInt(pos);
+    }
+
+    return(null);
+  }
+
+
+  private StaticFile decode(int pos, String virpath)
+  {
+    int flags = index.get(pos+8);
+    long size = index.getLong(pos+9);
+    long etag = index.getLong(pos+17);
+
+    String actpath = deployment + virpath.replace("/",sep);
+    String hex = String.format("%016x",etag);
+
+    return(new StaticFile(virpath,actpath,hex,size,(flags & CACHE) != 0,(flags & COMPRESSED) != 0));
+  }
+}
\ No newline at end of file
@@ -30,6 +30,8 @@ import database.rest.config.Handlers.HandlerProperties;
 
 public class PathUtil
 {
+  private final int strip;
+  private final String prefix;
   private final HandlerProperties properties;
   private final Logger logger = Logger.getLogger("http");
 
@@ -37,17 +39,24 @@ public class PathUtil
   public PathUtil(Handler handler) throws Exception
   {
     this.properties = handler.properties();
+    this.prefix = properties.prefix();
+
+    // Keep the trailing "/" of the prefix, i.e. the leading "/" of the path
+    this.strip = prefix.length() - 1;
   }
 
 
   public String getPath(String urlpath)
   {
-    String prefix = properties.prefix();
-
     if (prefix.length() > urlpath.length()) return(null);
-    String path = "/"+urlpath.substring(prefix.length());
 
-    path = path.replaceAll("//","/");
+    String path = null;
+
+    if (urlpath.charAt(strip) == '/') path = urlpath.substring(strip);
+    else path = "/"+urlpath.substring(prefix.length());
+
+    if (path.indexOf("//") >= 0)
+      path = path.replace("//","/");
 
     while(path.length() > 1 && path.endsWith("/"))
       path = path.substring(0,path.length()-1);
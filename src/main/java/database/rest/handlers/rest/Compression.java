@@ -0,0 +1,303 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.rest;
+
+import java.util.zip.CRC32;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ *
+ * Compresses REST responses with gzip or deflate, as accepted by the client.
+ * Deflaters are taken from a small pool and reset between responses, instead
+ * of allocating native zlib state per response. The pool is shared by all
+ * threads, as workers might be virtual threads, started for each request.
+ * Deflaters not fitting in the pool when returned are ended right away.
+ *
+ */
+public class Compression
+{
+  private static final AtomicLong responses = new AtomicLong(0);
+  private static final AtomicLong original = new AtomicLong(0);
+  private static final AtomicLong compressed = new AtomicLong(0);
+
+  private static final byte[] GZIPHEAD = {0x1f,(byte) 0x8b,Deflater.DEFLATED,0,0,0,0,0,0,(byte) 0xff};
+
+  private static final int POOL = 32;
+
+  private static final ArrayBlockingQueue<Deflater> gzip =
+    new ArrayBlockingQueue<Deflater>(POOL);
+
+  private static final ArrayBlockingQueue<Deflater> deflate =
+    new ArrayBlockingQueue<Deflater>(POOL);
+
+
+  /**
+   *
+   * The encoding to use, gzip or deflate, or null if the client accepts neither.
+   *
+   */
+  public static String encoding(String accept)
+  {
+    if (accept == null)
+      return(null);
+
+    boolean gzip = false;
+    boolean deflate = false;
+
+    for(String coding : accept.toLowerCase().split(","))
+    {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+
+      // q=0 means not acceptable
+      if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?"))
+        continue;
+
+      if (name.equals("gzip")) gzip = true;
+      else if (name.equals("deflate")) deflate = true;
+    }
+
+    if (gzip) return("gzip");
+    if (deflate) return("deflate");
+
+    return(null);
+  }
+
+
+  public static byte[] compress(String encoding, byte[] data, int level)
+  {
+    byte[] bytes = null;
+
+    if (encoding.equals("gzip")) bytes = gzip(data,level);
+    else                         bytes = deflate(data,level);
+
+    responses.incrementAndGet();
+    original.addAndGet(data.length);
+    compressed.addAndGet(bytes.length);
+
+    return(bytes);
+  }
+
+
+  /**
+   *
+   * Compresses a response while it is written, for results sent in chunks.
+   *
+   */
+  public static OutputStream stream(String encoding, OutputStream out, int level) throws IOException
+  {
+    responses.incrementAndGet();
+    return(new Deflating(out,encoding.equals("gzip"),level));
+  }
+
+
+  private static byte[] gzip(byte[] data, int level)
+  {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length/4+32);
+
+    out.write(GZIPHEAD,0,GZIPHEAD.length);
+    deflate(true,data,level,out);
+
+    long sum = crc.getValue();
+
+    for (int i = 0; i < 4; i++) out.write((int) (sum >>> (8*i)));
+    for (int i = 0; i < 4; i++) out.write(data.length >>> (8*i));
+
+    return(out.toByteArray());
+  }
+
+
+  private static byte[] deflate(byte[] data, int level)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length/4+16);
+    deflate(false,data,level,out);
+    return(out.toByteArray());
+  }
+
+
+  private static void deflate(boolean gzip, byte[] data, int level, ByteArrayOutputStream out)
+  {
+    byte[] buf = new byte[8192];
+    Deflater deflater = take(gzip,level);
+
+    try
+    {
+      deflater.setInput(data);
+      deflater.finish();
+
+      while(!deflater.finished())
+      {
+        int len = deflater.deflate(buf);
+        out.write(buf,0,len);
+      }
+    }
+    finally
+    {
+      release(gzip,deflater);
+    }
+  }
+
+
+  /**
+   *
+   * A pooled Deflater, gzip is raw deflate with its own header and trailer.
+   *
+   */
+  private static Deflater take(boolean gzip, int level)
+  {
+    Deflater deflater = gzip ? Compression.gzip.poll() : deflate.poll();
+
+    if (deflater == null) deflater = new Deflater(level,gzip);
+    else deflater.reset();
+
+    deflater.setLevel(level);
+    return(deflater);
+  }
+
+
+  private static void release(boolean gzip, Deflater deflater)
+  {
+    boolean pooled = gzip ? Compression.gzip.offer(deflater) : deflate.offer(deflater);
+    if (!pooled) deflater.end();
+  }
+
+
+  public static long responses()
+  {
+    return(responses.get());
+  }
+
+
+  public static long original()
+  {
+    return(original.get());
+  }
+
+
+  public static long compressed()
+  {
+    return(compressed.get());
+  }
+
+
+  /**
+   *
+   * Bytes not sent thanks to compression.
+   *
+   */
+  public static long saved()
+  {
+    return(original.get() - compressed.get());
+  }
+
+
+  /**
+   *
+   * Holds a pooled Deflater until closed, also when the response is aborted.
+   *
+   */
+  private static class Deflating extends DeflaterOutputStream
+  {
+    private long size = 0;
+    private boolean closed = false;
+
+    private final boolean gzip;
+    private final CRC32 crc = new CRC32();
+
+
+    Deflating(OutputStream out, boolean gzip, int level) throws IOException
+    {
+      super(out,take(gzip,level),8192);
+      this.gzip = gzip;
+
+      if (gzip)
+      {
+        out.write(GZIPHEAD);
+        size += GZIPHEAD.length;
+      }
+    }
+
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException
+    {
+      if (gzip) crc.update(data,off,len);
+      super.write(data,off,len);
+    }
+
+
+    @Override
+    public void finish() throws IOException
+    {
+      if (def.finished())
+        return;
+
+      super.finish();
+
+      if (gzip)
+      {
+        byte[] trailer = new byte[8];
+
+        long sum = crc.getValue();
+        long length = def.getBytesRead();
+
+        for (int i = 0; i < 4; i++) trailer[i] = (byte) (sum >>> (8*i));
+        for (int i = 0; i < 4; i++) trailer[i+4] = (byte) (length >>> (8*i));
+
+        out.write(trailer);
+        size += trailer.length;
+      }
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+      if (closed)
+        return;
+
+      closed = true;
+
+      try
+      {
+        finish();
+        out.close();
+      }
+      finally
+      {
+        original.addAndGet(def.getBytesRead());
+        compressed.addAndGet(def.getBytesWritten()+size);
+        release(gzip,def);
+      }
+    }
+  }
+}
\ No newline at end of file
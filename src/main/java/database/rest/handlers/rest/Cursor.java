@@ -23,6 +23,8 @@ package database.rest.handlers.rest;
 
 import java.sql.ResultSet;
 import java.sql.PreparedStatement;
+import database.rest.database.Database;
+import java.time.format.DateTimeFormatter;
 
 
 public class Cursor
@@ -31,12 +33,19 @@ public class Cursor
   final ResultSet rset;
   final PreparedStatement stmt;
 
+  String sql = null;
+  Database database = null;
+
   int rows = 0;
   boolean closed = false;
   boolean compact = false;
   String[] columns = null;
   String dateformat = null;
 
+  int fetched = 0;
+  boolean timeconv = false;
+  DateTimeFormatter formatter = null;
+
 
   public Cursor(String name, PreparedStatement stmt, ResultSet rset)
   {
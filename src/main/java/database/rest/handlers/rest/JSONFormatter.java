@@ -21,10 +21,8 @@
 
 package database.rest.handlers.rest;
 
-import org.json.JSONObject;
 import java.util.ArrayList;
-import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.util.function.Supplier;
 
 
 public class JSONFormatter
@@ -92,27 +90,85 @@ public class JSONFormatter
   }
 
 
+  /**
+   *
+   * Rows read while the document is written, i.e. for a Matrix.
+   *
+   */
+  public void add(Rows rows)
+  {
+    content.add(rows);
+  }
+
+
+  /**
+   *
+   * Rows read while the document is written, i.e. for an ObjectArray.
+   *
+   */
+  public void add(String[] names, Rows rows)
+  {
+    content.add(new Fetch(names,rows));
+  }
+
+
   public void add(String name, Object value)
   {
     content.add(name,value);
   }
 
 
+  /**
+   *
+   * The value is evaluated when the document is written.
+   *
+   */
+  public void add(String name, Supplier<?> value)
+  {
+    content.add(name,value);
+  }
+
+
   public void add(String[] name, Object[] value)
   {
     content.add(name,value);
   }
 
 
-  @Override
-  public String toString()
+  /**
+   *
+   * Writes the document to the writer, pretty printed or not.
+   *
+   */
+  public void write(JSONWriter out) throws Exception
   {
     Content content = this.content;
 
     while(content.parent != null)
       content = content.parent;
 
-    return(content.persist());
+    content.persist(out);
+  }
+
+
+  @Override
+  public String toString()
+  {
+    JSONWriter out = JSONWriter.get();
+
+    try
+    {
+      write(out);
+      return(out.toString());
+    }
+    catch (Exception e)
+    {
+      throw new IllegalStateException(e);
+    }
+    finally
+    {
+      JSONWriter.release(out);
+    }
   }
 
 
@@ -164,6 +220,11 @@ public class JSONFormatter
       content.add(array);
     }
 
+    void add(Object rows)
+    {
+      content.add(rows);
+    }
+
     void add(String name, Object value)
     {
       content.add(new Object[] {name,value});
@@ -182,31 +243,34 @@ public class JSONFormatter
     }
 
 
-    String persist()
+    void persist(JSONWriter out) throws Exception
     {
-      return(persist(this,0));
+      persist(out,this,0);
     }
 
 
-    private String persist(Content node, int level)
+    private void persist(JSONWriter out, Content node, int level) throws Exception
     {
       if (node.type == Type.Matrix)
-        return(persistMatrix(node,level));
+      {
+        persistMatrix(out,node,level);
+        return;
+      }
 
       if (node.type == Type.SimpleArray)
-        return(persistSimpleArray(node,level));
+      {
+        persistSimpleArray(out,node,level);
+        return;
+      }
 
       if (node.type == Type.ObjectArray)
-        return(persistObjectArray(node,level));
-
-      String lev = "";
-      if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
-
-      String str = "";
-      String ind = lev + "  ";
+      {
+        persistObjectArray(out,node,level);
+        return;
+      }
 
-      if (level > 0) str += nl;
-      str += lev + "{" + nl;
+      if (level > 0) out.newline();
+      out.indent(level).append('{').newline();
 
       int elements = node.content.size();
 
@@ -214,180 +278,187 @@ public class JSONFormatter
       {
         Object elem = node.content.get(i);
 
-        String comm = "";
-        if (i < elements - 1) comm = ",";
-
-        String newl = "";
-        if (i > 0) newl = nl;
+        if (i > 0) out.newline();
+        out.indent(level+1);
 
         if (elem instanceof Content)
         {
           Content next = (Content) elem;
-          str += newl + ind + quote(next.name)+":";
-          str += persist(next,level+1)+comm;
+          out.string(next.name).append(':');
+          persist(out,next,level+1);
         }
         else
         {
           Object[] nvp = (Object[]) elem;
-          str += newl + ind + quote(nvp[0])+": "+escape(nvp[1])+comm;
+          out.string(str(nvp[0])).colon().value(value(nvp[1]));
         }
+
+        if (i < elements - 1) out.append(',');
       }
 
-      str += nl + lev + "}";
-      return(str);
+      out.newline().indent(level).append('}');
     }
 
 
-    String persistObjectArray(Content node, int level)
+    void persistObjectArray(JSONWriter out, Content node, int level) throws Exception
     {
-      String lev = "";
-      if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
-
-      String str = "";
-      String ind = lev + "  ";
+      if (level > 0) out.newline();
+      out.indent(level).append('[').newline();
 
-      if (level > 0) str += nl;
-      str += lev + "[" + nl;
+      boolean first = true;
 
-      int elements = node.content.size();
-
-      for (int i = 0; i < elements; i++)
+      for(Object elem : node.content)
       {
-        Object elem = node.content.get(i);
-
-        String comm = "";
-        if (i < elements - 1) comm = ",";
-
-        String newl = "";
-        if (i > 0) newl = nl;
+        if (elem instanceof Fetch)
+        {
+          Object[] row = null;
+          Fetch fetch = (Fetch) elem;
 
-        if (elem instanceof Content)
+          while((row = fetch.rows.next()) != null)
+          {
+            first = next(out,first,level);
+            persistRow(out,fetch.names,row);
+          }
+        }
+        else if (elem instanceof Content)
         {
           Content next = (Content) elem;
-          str += newl + ind + quote(next.name)+":";
-          str += persist(next,level+1)+comm;
+
+          first = next(out,first,level);
+          out.string(next.name).append(':');
+          persist(out,next,level+1);
         }
         else
         {
           Object[][] row = (Object[][]) elem;
 
-          Object[] names = row[0];
-          Object[] values = row[1];
-
-          str += newl + ind + "{";
+          first = next(out,first,level);
+          persistRow(out,row[0],row[1]);
+        }
+      }
 
-          for (int j = 0; j < names.length; j++)
-          {
-            String next = "";
-            if (j < names.length - 1) next = ",";
+      out.newline().indent(level).append(']');
+    }
 
-            Object name = names[j];
-            Object value = values[j];
 
-            str += quote(name)+": "+escape(value)+next;
-          }
+    private void persistRow(JSONWriter out, Object[] names, Object[] values)
+    {
+      out.append('{');
 
-          str += "}" + comm;
-        }
+      for (int j = 0; j < names.length; j++)
+      {
+        if (j > 0) out.append(',');
+        out.string(str(names[j])).colon().value(values[j]);
       }
 
-      str += nl + lev + "]";
-      return(str);
+      out.append('}');
     }
 
 
-    String persistSimpleArray(Content node, int level)
+    // Separates the elements of an array, one per line
+    private boolean next(JSONWriter out, boolean first, int level)
     {
-      String lev = "";
-      if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
+      if (!first) out.append(',').newline();
+      out.indent(level+1);
+      return(false);
+    }
+
 
-      String str = lev + "[";
+    void persistSimpleArray(JSONWriter out, Content node, int level)
+    {
+      out.indent(level).append('[');
 
       Object elem = node.content.get(0);
       Object[] values = (Object[]) elem;
 
       for (int j = 0; j < values.length; j++)
       {
-        String next = "";
-        if (j < values.length - 1) next = ",";
-
-        Object value = values[j];
-        str += escape(value)+next;
+        if (j > 0) out.append(',');
+        out.value(values[j]);
       }
 
-      str += "]";
-      return(str);
+      out.append(']');
     }
 
 
-    String persistMatrix(Content node, int level)
+    void persistMatrix(JSONWriter out, Content node, int level) throws Exception
     {
-      String lev = "";
-      if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
-
-      String ind = lev + "  ";
-      String str = nl + lev + "[";
+      out.newline().indent(level).append('[');
 
-      Object[][] rows = (Object[][]) node.content.get(0);
+      Object elem = node.content.get(0);
 
-      for (int i = 0; i < rows.length; i++)
+      if (elem instanceof Rows)
       {
-        String comm = "";
-        if (i < rows.length - 1) comm = ",";
-
-        str += nl + ind + "[";
+        int i = 0;
+        Object[] cols = null;
+        Rows rows = (Rows) elem;
 
-        Object[] cols = rows[i];
-        for (int j = 0; j < cols.length; j++)
-        {
-          String next = "";
-          if (j < cols.length-1) next = ",";
-          str += escape(cols[j])+next;
-        }
+        while((cols = rows.next()) != null)
+          persistRow(out,i++,cols,level);
+      }
+      else
+      {
+        Object[][] rows = (Object[][]) elem;
 
-        str += "]" + comm;
+        for (int i = 0; i < rows.length; i++)
+          persistRow(out,i,rows[i],level);
       }
 
-      str += nl + lev + "]";
-      return(str);
+      out.newline().indent(level).append(']');
     }
 
-    String escape(Object value)
+
+    private void persistRow(JSONWriter out, int row, Object[] cols, int level)
     {
-      if (value == null)
-        return("null");
+      if (row > 0) out.append(',');
+      out.newline().indent(level+1).append('[');
 
-      if (value instanceof Boolean)
-        return(value.toString());
+      for (int j = 0; j < cols.length; j++)
+      {
+        if (j > 0) out.append(',');
+        out.value(cols[j]);
+      }
+
+      out.append(']');
+    }
 
-      if (value instanceof Long)
-        return(value.toString());
 
-      if (value instanceof Integer)
-        return(value.toString());
+    Object value(Object value)
+    {
+      if (value instanceof Supplier) return(((Supplier<?>) value).get());
+      return(value);
+    }
 
-      if (value instanceof Float)
-        return(value.toString());
 
-      if (value instanceof Double)
-        return(value.toString());
+    String str(Object name)
+    {
+      return(name+"");
+    }
+ }
 
-      if (value instanceof BigInteger)
-        return(value.toString());
 
-      if (value instanceof BigDecimal)
-        return(value.toString());
+  /**
+   *
+   * Source of rows, returns null when there are no more.
+   *
+   */
+  public static interface Rows
+  {
+    Object[] next() throws Exception;
+  }
 
-      value = JSONObject.quote(value.toString());
-      return(value.toString());
-    }
 
+  private static class Fetch
+  {
+    final Rows rows;
+    final String[] names;
 
-    String quote(Object str)
+    Fetch(String[] names, Rows rows)
     {
-      return("\""+str+"\"");
+      this.rows = rows;
+      this.names = names;
     }
- }
+  }
 
 
   public static enum Type
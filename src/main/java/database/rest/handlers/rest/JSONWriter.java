@@ -0,0 +1,386 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.rest;
+
+import java.util.Arrays;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ *
+ * Writes JSON as UTF-8 directly into a growable byte buffer.
+ * Strings are escaped the same way as org.json's JSONObject.quote,
+ * without going through intermediate Strings. Writers for responses
+ * built in one go are taken from a small pool shared by all threads,
+ * and returned when done.
+ * A writer with a sink passes the bytes on whenever the buffer is full.
+ *
+ */
+public class JSONWriter
+{
+  private int pos = 0;
+  private byte[] buf = null;
+  private final int size;
+  private final boolean pretty;
+  private final OutputStream sink;
+
+  private static final int INITIAL = 8192;
+  private static final int RETAIN = 1024*1024;
+
+  private static final byte[] ESCAPE = new byte[128];
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+  private static final int POOL = 32;
+
+  private static final ArrayBlockingQueue<JSONWriter> writers =
+    new ArrayBlockingQueue<JSONWriter>(POOL);
+
+  static
+  {
+    for (int i = 0; i < ' '; i++) ESCAPE[i] = 'u';
+
+    ESCAPE['\b'] = 'b';
+    ESCAPE['\t'] = 't';
+    ESCAPE['\n'] = 'n';
+    ESCAPE['\f'] = 'f';
+    ESCAPE['\r'] = 'r';
+    ESCAPE['"'] = '"';
+    ESCAPE['\\'] = '\\';
+  }
+
+
+  /**
+   *
+   * A pooled writer, emptied and ready for use. Hand it back with release().
+   *
+   */
+  public static JSONWriter get()
+  {
+    JSONWriter writer = writers.poll();
+    if (writer == null) writer = new JSONWriter(INITIAL,true);
+    return(writer);
+  }
+
+
+  /**
+   *
+   * Returns the writer to the pool, or leaves it to the gc if the pool is full.
+   *
+   */
+  public static void release(JSONWriter writer)
+  {
+    writer.reset();
+    writers.offer(writer);
+  }
+
+
+  public JSONWriter()
+  {
+    this(INITIAL,true);
+  }
+
+
+  public JSONWriter(boolean pretty)
+  {
+    this(INITIAL,pretty);
+  }
+
+
+  public JSONWriter(int size, boolean pretty)
+  {
+    this(null,size,pretty);
+  }
+
+
+  public JSONWriter(OutputStream sink, int size, boolean pretty)
+  {
+    this.sink = sink;
+    this.size = size;
+    this.pretty = pretty;
+  }
+
+
+  public boolean pretty()
+  {
+    return(pretty);
+  }
+
+
+  public int size()
+  {
+    return(pos);
+  }
+
+
+  /**
+   *
+   * Empties the writer. Buffers grown beyond 1MB are released,
+   * so that one large response doesn't stay on the heap.
+   *
+   */
+  public void reset()
+  {
+    pos = 0;
+
+    if (buf != null && buf.length > RETAIN)
+      buf = null;
+  }
+
+
+  /**
+   *
+   * Passes what is buffered on to the sink.
+   *
+   */
+  public void flush() throws IOException
+  {
+    if (sink == null || pos == 0)
+      return;
+
+    sink.write(buf,0,pos);
+    pos = 0;
+  }
+
+
+  public byte[] bytes()
+  {
+    if (buf == null) return(new byte[0]);
+    return(Arrays.copyOf(buf,pos));
+  }
+
+
+  public JSONWriter newline()
+  {
+    if (pretty) append(NL);
+    return(this);
+  }
+
+
+  public JSONWriter indent(int level)
+  {
+    if (!pretty || level <= 0)
+      return(this);
+
+    ensure(2*level);
+    Arrays.fill(buf,pos,pos+2*level,(byte) ' ');
+
+    pos += 2*level;
+    return(this);
+  }
+
+
+  public JSONWriter colon()
+  {
+    append(':');
+    if (pretty) append(' ');
+    return(this);
+  }
+
+
+  public JSONWriter append(char c)
+  {
+    ensure(1);
+    buf[pos++] = (byte) c;
+    return(this);
+  }
+
+
+  public JSONWriter append(byte[] bytes)
+  {
+    ensure(bytes.length);
+    System.arraycopy(bytes,0,buf,pos,bytes.length);
+    pos += bytes.length;
+    return(this);
+  }
+
+
+  /**
+   *
+   * Appends a string that is known to be plain ascii, like numbers.
+   *
+   */
+  public JSONWriter ascii(String str)
+  {
+    int len = str.length();
+    ensure(len);
+
+    for (int i = 0; i < len; i++)
+      buf[pos++] = (byte) str.charAt(i);
+
+    return(this);
+  }
+
+
+  public JSONWriter value(Object value)
+  {
+    if (value == null)
+      return(ascii("null"));
+
+    if (value instanceof Boolean)
+      return(ascii(value.toString()));
+
+    if (value instanceof Long)
+      return(ascii(value.toString()));
+
+    if (value instanceof Integer)
+      return(ascii(value.toString()));
+
+    if (value instanceof Float)
+      return(ascii(value.toString()));
+
+    if (value instanceof Double)
+      return(ascii(value.toString()));
+
+    if (value instanceof BigInteger)
+      return(ascii(value.toString()));
+
+    if (value instanceof BigDecimal)
+      return(ascii(value.toString()));
+
+    return(string(value.toString()));
+  }
+
+
+  /**
+   *
+   * Appends the string quoted and escaped. Room is reserved for 3 bytes per
+   * remaining char, the most a char takes in UTF-8, and topped up on escapes.
+   *
+   */
+  public JSONWriter string(String str)
+  {
+    if (str == null)
+      return(ascii("null"));
+
+    char prev = 0;
+    int len = str.length();
+
+    ensure(3*len+2);
+    buf[pos++] = '"';
+
+    for (int i = 0; i < len; i++)
+    {
+      char c = str.charAt(i);
+
+      if (c < 0x80)
+      {
+        byte esc = ESCAPE[c];
+
+        if (esc == 0 && (c != '/' || prev != '<'))
+        {
+          buf[pos++] = (byte) c;
+        }
+        else
+        {
+          ensure(6 + 3*(len-i-1) + 1);
+          buf[pos++] = '\\';
+
+          if (esc == 0) buf[pos++] = (byte) c;
+          else if (esc != 'u') buf[pos++] = esc;
+          else unicode(c);
+        }
+      }
+      else if (c < 0xa0 || (c >= 0x2000 && c < 0x2100))
+      {
+        ensure(6 + 3*(len-i-1) + 1);
+        buf[pos++] = '\\';
+        unicode(c);
+      }
+      else if (c < 0x800)
+      {
+        buf[pos++] = (byte) (0xc0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+      else if (!Character.isSurrogate(c))
+      {
+        buf[pos++] = (byte) (0xe0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+      else if (Character.isHighSurrogate(c) && i+1 < len && Character.isLowSurrogate(str.charAt(i+1)))
+      {
+        int cp = Character.toCodePoint(c,str.charAt(++i));
+
+        buf[pos++] = (byte) (0xf0 | (cp >> 18));
+        buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+      }
+      else
+      {
+        // Unpaired surrogate, replaced as String.getBytes does
+        buf[pos++] = '?';
+      }
+
+      prev = c;
+    }
+
+    buf[pos++] = '"';
+    return(this);
+  }
+
+
+  @Override
+  public String toString()
+  {
+    if (buf == null) return("");
+    return(new String(buf,0,pos,StandardCharsets.UTF_8));
+  }
+
+
+  private void unicode(char c)
+  {
+    buf[pos++] = 'u';
+    buf[pos++] = HEX[(c >> 12) & 0xf];
+    buf[pos++] = HEX[(c >> 8) & 0xf];
+    buf[pos++] = HEX[(c >> 4) & 0xf];
+    buf[pos++] = HEX[c & 0xf];
+  }
+
+
+  private void ensure(int bytes)
+  {
+    if (buf == null)
+      buf = new byte[Math.max(size,bytes)];
+
+    if (pos + bytes <= buf.length)
+      return;
+
+    if (sink != null && pos > 0)
+    {
+      try {flush();}
+      catch (IOException e) {throw new IllegalStateException(e);}
+
+      if (bytes <= buf.length)
+        return;
+    }
+
+    long grow = Math.max((long) pos + bytes,2L*buf.length);
+    buf = Arrays.copyOf(buf,(int) Math.min(grow,Integer.MAX_VALUE-8));
+  }
+}
\ No newline at end of file
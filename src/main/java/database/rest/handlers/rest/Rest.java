@@ -85,6 +85,7 @@ public class Rest
   private final boolean savepoint;
 
   private Request request = null;
+  private ResultStream stream = null;
 
   private int code = 200;
   private boolean failed = false;
@@ -205,6 +206,17 @@ public class Rest
     }
   }
 
+  /**
+   *
+   * Selects are written to the stream while the rows are read.
+   * Execute then returns null, unless it fails.
+   *
+   */
+  public void stream(ResultStream stream)
+  {
+    this.stream = stream;
+  }
+
   public int response()
   {
     return(code);
@@ -600,7 +612,7 @@ public class Rest
               response = call(request.payload); break;
 
             case "select" :
-              response = select(request.payload); break;
+              response = select(request.payload,batch ? null : stream); break;
 
             case "fetch" :
               response = fetch(request.payload); break;
@@ -1006,6 +1018,12 @@ public class Rest
 
 
   private String select(JSONObject payload)
+  {
+    return(select(payload,null));
+  }
+
+
+  private String select(JSONObject payload, ResultStream stream)
   {
     if (state.session() == null)
     {
@@ -1109,6 +1127,10 @@ public class Rest
       }
 
       String[] columns = state.session().getColumnNames(cursor);
+
+      if (stream != null && assertions == null && postprocessor == null)
+        return(stream(stream,cursor,sesid,skip,columns,types,precs));
+
       ArrayList<Object[]> table = state.session().fetch(cursor,skip);
 
       state.release();
@@ -1249,6 +1271,74 @@ public class Rest
   }
 
 
+  /**
+   *
+   * Writes the result while the rows are read, instead of collecting them first.
+   * Same layout as select, except that "more" follows the rows, it is not known
+   * until they have been read.
+   *
+   */
+  private String stream(ResultStream stream, Cursor cursor, String sesid, int skip, String[] columns, String[] types, Integer[][] precs) throws Exception
+  {
+    Session session = state.session();
+    JSONFormatter json = new JSONFormatter();
+    JSONWriter out = new JSONWriter(stream,stream.size(),true);
+
+    // Closed also when the client stops reading, before the connection is released
+    try
+    {
+      session.start(cursor,skip);
+      json.success(true);
+
+      if (types != null)
+      {
+        json.push("types",SimpleArray);
+        json.add(types);
+        json.pop();
+
+        json.push("precision",Matrix);
+        json.add(precs);
+        json.pop();
+      }
+
+      if (cursor.compact)
+      {
+        json.push("columns",SimpleArray);
+        json.add(columns);
+        json.pop();
+
+        json.push("rows",Matrix);
+        json.add(() -> session.next(cursor));
+        json.pop();
+      }
+      else
+      {
+        json.push("rows",ObjectArray);
+        json.add(columns,() -> session.next(cursor));
+        json.pop();
+      }
+
+      json.add("more",() -> !cursor.closed);
+
+      if (sesid != null)
+        json.add("session",sesid);
+
+      json.add("instance",instance);
+
+      json.write(out);
+      out.flush();
+    }
+    finally
+    {
+      if (cursor.name == null)
+        session.closeCursor(cursor);
+    }
+
+    state.release();
+    return(null);
+  }
+
+
   private String update(JSONObject payload, boolean returning)
   {
     String sesid = null;
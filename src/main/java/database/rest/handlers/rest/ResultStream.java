@@ -0,0 +1,157 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.rest;
+
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.OutputStream;
+import database.rest.servers.http.HTTPChunked;
+import database.rest.servers.http.HTTPRequest;
+import database.rest.servers.http.HTTPResponse;
+
+
+/**
+ *
+ * The body of a select, written while the rows are read. A result that fits
+ * in one chunk is kept, and sent as an ordinary response. Larger results are
+ * sent in chunks, compressed on the way if the client accepts it.
+ *
+ */
+public class ResultStream extends OutputStream
+{
+  private int pos = 0;
+  private byte[] buffer = null;
+  private OutputStream out = null;
+  private HTTPChunked chunked = null;
+
+  private final int size;
+  private final int level;
+  private final String encoding;
+  private final HTTPRequest request;
+  private final HTTPResponse response;
+
+
+  public ResultStream(HTTPRequest request, HTTPResponse response, String encoding, int level, int size)
+  {
+    this.size = size;
+    this.level = level;
+    this.request = request;
+    this.response = response;
+    this.encoding = encoding;
+  }
+
+
+  public int size()
+  {
+    return(size);
+  }
+
+
+  /**
+   *
+   * True when the result outgrew one chunk, and is sent in chunks.
+   *
+   */
+  public boolean started()
+  {
+    return(out != null);
+  }
+
+
+  /**
+   *
+   * The whole result, when it fits in one chunk.
+   *
+   */
+  public byte[] bytes()
+  {
+    if (buffer == null) return(new byte[0]);
+    return(Arrays.copyOf(buffer,pos));
+  }
+
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    write(new byte[] {(byte) b},0,1);
+  }
+
+
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException
+  {
+    if (out == null && pos + len <= size)
+    {
+      if (buffer == null) buffer = new byte[size];
+      System.arraycopy(data,off,buffer,pos,len);
+      pos += len;
+      return;
+    }
+
+    if (out == null) start();
+    out.write(data,off,len);
+  }
+
+
+  @Override
+  public void close() throws IOException
+  {
+    if (out != null) out.close();
+  }
+
+
+  /**
+   *
+   * Fails a response that has started, the client sees an incomplete body.
+   *
+   */
+  public void abort()
+  {
+    if (chunked == null)
+      return;
+
+    chunked.abort();
+
+    try {out.close();}
+    catch (Exception e) {;}
+  }
+
+
+  private void start() throws IOException
+  {
+    chunked = new HTTPChunked(request,response,size);
+    out = chunked;
+
+    if (encoding != null)
+    {
+      response.setHeader("Content-Encoding",encoding);
+      response.setHeader("Vary","Accept-Encoding");
+      out = Compression.stream(encoding,chunked,level);
+    }
+
+    if (pos > 0)
+      out.write(buffer,0,pos);
+
+    pos = 0;
+    buffer = null;
+  }
+}
\ No newline at end of file
@@ -35,6 +35,7 @@ import database.rest.config.Config;
 import database.rest.database.Database;
 import database.rest.database.BindValue;
 import database.rest.database.BindValueDef;
+import database.rest.database.StatementCache;
 import database.rest.config.DatabaseType;
 import database.rest.database.AuthMethod;
 import java.time.format.DateTimeFormatter;
@@ -479,14 +480,27 @@ public class Session
 
   public boolean execute(String sql) throws Exception
   {
-    return(database.execute(sql));
+    // DDL may change the objects cached statements refer to
+    try {return(database.execute(sql));}
+    finally {StatementCache.evict();}
   }
 
 
   public int executeUpdate(String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
     PreparedStatement stmt = database.prepare(sql,bindvalues,dateform);
-    return(database.executeUpdate(stmt));
+
+    try
+    {
+      int rows = database.executeUpdate(stmt);
+      database.release(sql,stmt);
+      return(rows);
+    }
+    catch (Exception e)
+    {
+      database.close(stmt);
+      throw e;
+    }
   }
 
 
@@ -500,10 +514,25 @@ public class Session
 
   public Cursor executeQuery(String name, String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
+    ResultSet rset = null;
     PreparedStatement stmt = database.prepare(sql,bindvalues,dateform);
-    ResultSet         rset = database.executeQuery(stmt);
+
+    try
+    {
+      rset = database.executeQuery(stmt);
+    }
+    catch (Exception e)
+    {
+      database.close(stmt);
+      throw e;
+    }
 
     Cursor cursor = new Cursor(name,stmt,rset);
+
+    // The statement goes back to the cache of its connection when closed
+    cursor.sql = sql;
+    cursor.database = database;
+
     if (name != null) cursors.put(name,cursor);
 
     return(cursor);
@@ -522,7 +551,18 @@ public class Session
     }
 
     CallableStatement stmt = database.prepareCall(sql,bindvalues,dateform);
-    return(database.execute(stmt,bindvalues,timeconv,formatter));
+
+    try
+    {
+      ArrayList<NameValuePair<Object>> values = database.execute(stmt,bindvalues,timeconv,formatter);
+      database.release(sql,stmt);
+      return(values);
+    }
+    catch (Exception e)
+    {
+      database.close(stmt);
+      throw e;
+    }
   }
 
 
@@ -548,28 +588,60 @@ public class Session
 
   public ArrayList<Object[]> fetch(Cursor cursor, int skip) throws Exception
   {
-    boolean timeconv = false;
-    DateTimeFormatter formatter = null;
+    Object[] row = null;
+    ArrayList<Object[]> table = new ArrayList<Object[]>();
+
+    start(cursor,skip);
+
+    while((row = next(cursor)) != null)
+      table.add(row);
+
+    return(table);
+  }
+
+
+  /**
+   *
+   * Starts a fetch, skipping the first rows. The rows are then read one at
+   * a time with next(), i.e. without holding all of them in memory.
+   *
+   */
+  public void start(Cursor cursor, int skip) throws Exception
+  {
+    cursor.fetched = 0;
+    cursor.timeconv = false;
+    cursor.formatter = null;
 
     if (cursor.dateformat != null)
     {
-      if (cursor.dateformat.equals("UTC")) timeconv = true;
-      else formatter = DateTimeFormatter.ofPattern(cursor.dateformat);
+      if (cursor.dateformat.equals("UTC")) cursor.timeconv = true;
+      else cursor.formatter = DateTimeFormatter.ofPattern(cursor.dateformat);
     }
 
-    int columns = cursor.columns.length;
-    ArrayList<Object[]> table = new ArrayList<Object[]>();
-
     for (int i = 0; i < skip && cursor.rset.next(); i++)
-      database.fetch(cursor.rset,timeconv,formatter);
+      database.fetch(cursor.rset,cursor.timeconv,cursor.formatter);
+  }
+
 
-    for (int i = 0; (cursor.rows <= 0 || i < cursor.rows) && cursor.rset.next(); i++)
-      table.add(database.fetch(columns,cursor.rset,timeconv,formatter));
+  /**
+   *
+   * The next row, or null when the rows asked for have been read. The cursor
+   * is closed when there are no more rows.
+   *
+   */
+  public Object[] next(Cursor cursor) throws Exception
+  {
+    if (cursor.rows > 0 && cursor.fetched >= cursor.rows)
+      return(null);
 
-    if (cursor.rows <= 0 || table.size() < cursor.rows)
+    if (!cursor.rset.next())
+    {
       closeCursor(cursor);
+      return(null);
+    }
 
-    return(table);
+    cursor.fetched++;
+    return(database.fetch(cursor.columns.length,cursor.rset,cursor.timeconv,cursor.formatter));
   }
 
 
@@ -590,14 +662,21 @@ public class Session
 
   public void closeCursor(Cursor cursor)
   {
-    if (cursor == null)
+    if (cursor == null || cursor.closed)
       return;
 
     try {cursor.rset.close();}
     catch (Exception e) {;}
 
-    try {cursor.stmt.close();}
-    catch (Exception e) {;}
+    if (cursor.sql != null)
+    {
+      cursor.database.release(cursor.sql,cursor.stmt);
+    }
+    else
+    {
+      try {cursor.stmt.close();}
+      catch (Exception e) {;}
+    }
 
     if (cursor.name != null)
       cursors.remove(cursor.name);
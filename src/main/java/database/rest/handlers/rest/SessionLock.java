@@ -21,13 +21,24 @@
 
 package database.rest.handlers.rest;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+
+/**
+ *
+ * Uses a ReentrantLock rather than a monitor, so that a virtual thread
+ * waiting for the session does not pin its carrier thread.
+ *
+ */
 public class SessionLock
 {
   private int shared = 0;
   private long thread = 0;
   private boolean exclusive = false;
-  private final Object LOCK = new Object();
+
+  private final ReentrantLock LOCK = new ReentrantLock();
+  private final Condition released = LOCK.newCondition();
 
 
   public SessionLock()
@@ -37,19 +48,21 @@ public class SessionLock
 
   public void lock(boolean exclusive) throws Exception
   {
-    long thread = Thread.currentThread().getId();
+    long thread = Thread.currentThread().threadId();
 
-    synchronized(LOCK)
+    LOCK.lock();
+
+    try
     {
       boolean owner = this.thread == thread;
 
       while(!owner && this.exclusive)
-        LOCK.wait();
+        released.await();
 
       if (exclusive)
       {
         while(!owner && this.shared > 0)
-          LOCK.wait();
+          released.await();
 
         this.thread = thread;
         this.exclusive = true;
@@ -57,11 +70,15 @@ public class SessionLock
       else
       {
         while(!owner && this.exclusive)
-          LOCK.wait();
+          released.await();
 
         this.shared++;
       }
     }
+    finally
+    {
+      LOCK.unlock();
+    }
   }
 
 
@@ -75,9 +92,11 @@ public class SessionLock
 
   public void release(boolean exclusive, int shared) throws Exception
   {
-    long thread = Thread.currentThread().getId();
+    long thread = Thread.currentThread().threadId();
+
+    LOCK.lock();
 
-    synchronized(LOCK)
+    try
     {
       if (exclusive && this.thread != thread)
         throw new Exception("Thread "+thread+" cannot release session lock owned by "+this.thread);
@@ -95,7 +114,11 @@ public class SessionLock
       }
 
       this.shared -= shared;
-      LOCK.notifyAll();
+      released.signalAll();
+    }
+    finally
+    {
+      LOCK.unlock();
     }
   }
 
@@ -21,71 +21,353 @@
 
 package database.rest.pools;
 
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import database.rest.config.Topology;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ *
+ * Runs tasks for a stage, i.e. accept (ssl handshakes), http, files or rest.
+ * Each stage has its own executor, sized in the topology, and its own bounded
+ * queue of tasks waiting for a thread. A busy stage therefore cannot starve the others.
+ * When the queue is full, either the new task or the oldest waiting task is
+ * shed. Tasks that wait longer than the deadline are shed when they reach a thread.
+ * Shed tasks that implement Task are told to reject, i.e. respond 503.
+ *
+ */
 public class ThreadPool
 {
-  private final int threads;
-  private static ExecutorService workers = null;
+  private final Stage stage;
 
-  private static int queue = 0;
-  private static final Object LOCK = new Object();
+  private static final ConcurrentHashMap<String,Stage> stages =
+    new ConcurrentHashMap<String,Stage>();
 
+  private final static Logger logger = Logger.getLogger("http");
 
-  public ThreadPool(int threads)
+
+  /**
+   *
+   * With virtual, each task runs on its own virtual thread. Tasks blocked on
+   * JDBC then don't hold a platform thread. The number of threads is still used
+   * by full(), i.e. to report when more than that many tasks are in progress.
+   * Since tasks never wait for a thread, only the deadline applies.
+   *
+   */
+  public ThreadPool(String stage, Topology topology)
   {
-    init(threads);
-    this.threads = threads;
+    this.stage = stage(stage,topology);
   }
 
 
   public int threads()
   {
-    return(threads);
+    return(stage.threads);
   }
 
 
-  public void done()
+  public boolean full()
   {
-    synchronized(LOCK)
-     {queue--;}
+    return(stage.running.get() > stage.threads);
   }
 
 
-  public boolean full()
+  public int size()
   {
-    return(queue > threads);
+    return(stage.running.get());
   }
 
 
-  public int size()
+  public Stage stage()
+  {
+    return(stage);
+  }
+
+
+  public static ArrayList<Stage> stages()
+  {
+    return(new ArrayList<Stage>(stages.values()));
+  }
+
+
+  public static long rejected()
+  {
+    long rejected = 0;
+    for(Stage stage : stages.values()) rejected += stage.rejected();
+    return(rejected);
+  }
+
+
+  public static long dropped()
+  {
+    long dropped = 0;
+    for(Stage stage : stages.values()) dropped += stage.dropped();
+    return(dropped);
+  }
+
+
+  public static long expired()
   {
-    synchronized(LOCK)
-    {return(queue);}
+    long expired = 0;
+    for(Stage stage : stages.values()) expired += stage.expired();
+    return(expired);
   }
 
 
-  private synchronized void init(int threads)
+  private static Stage stage(String name, Topology topology)
   {
-    if (workers == null)
-      workers = Executors.newFixedThreadPool(threads);
+    Stage stage = stages.get(name);
+    if (stage != null) return(stage);
+
+    stages.putIfAbsent(name,new Stage(name,topology));
+    return(stages.get(name));
   }
 
 
   public static void shutdown()
   {
-    if (workers != null)
-      workers.shutdownNow();
+    for(Stage stage : stages.values())
+      stage.workers.shutdownNow();
   }
 
 
   public void submit(Runnable task)
   {
-    synchronized(LOCK)
-      {queue++;}
+    Entry shed = null;
+    boolean run = true;
+    Entry entry = new Entry(task,stage.deadline);
+
+    synchronized(stage)
+    {
+      if (stage.waiting.size() >= stage.size)
+      {
+        if (stage.dropoldest)
+        {
+          // The thread already submitted for the oldest takes the new one
+          shed = stage.waiting.pollFirst();
+          stage.dropped.incrementAndGet();
+          run = false;
+        }
+        else
+        {
+          shed = entry;
+          entry = null;
+          stage.rejected.incrementAndGet();
+        }
+      }
+
+      if (entry != null)
+        stage.waiting.addLast(entry);
+    }
+
+    if (shed != null)
+      stage.reject(shed);
+
+    if (entry != null && run)
+    {
+      stage.running.incrementAndGet();
+      stage.workers.submit(stage::runone);
+    }
+  }
+
+
+  /**
+   *
+   * A task that must answer when shed, i.e. with 503 and Retry-After.
+   *
+   */
+  public static interface Task extends Runnable
+  {
+    public void reject(int retry) throws Exception;
+  }
+
+
+  public static class Stage
+  {
+    private final int size;
+    private final int retry;
+    private final String name;
+    private final int threads;
+    private final long deadline;
+    private final boolean dropoldest;
+    private final ExecutorService workers;
+
+    private final AtomicInteger running = new AtomicInteger(0);
+
+    private final ArrayDeque<Entry> waiting =
+      new ArrayDeque<Entry>();
+
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+
+
+
+    private Stage(String name, Topology topology)
+    {
+      this.name = name;
+      this.threads = topology.threads(name);
+
+      if (topology.virtual) this.workers = Executors.newVirtualThreadPerTaskExecutor();
+      else                  this.workers = Executors.newFixedThreadPool(threads,new Factory(name));
+
+      this.size = topology.queue > 0 ? topology.queue : 4 * threads;
+      this.deadline = topology.deadline;
+      this.dropoldest = topology.dropoldest;
+      this.retry = topology.retryafter;
+    }
+
+
+    private void runone()
+    {
+      Entry entry = null;
+
+      synchronized(this)
+      {entry = waiting.pollFirst();}
+
+      try
+      {
+        if (entry == null)
+          return;
+
+        if (entry.expired())
+        {
+          expired.incrementAndGet();
+          reject(entry);
+          return;
+        }
+
+        entry.task.run();
+      }
+      catch (Throwable e)
+      {
+        logger.log(Level.SEVERE,e.getMessage(),e);
+      }
+      finally
+      {
+        running.decrementAndGet();
+      }
+    }
+
+
+    private void reject(Entry entry)
+    {
+      if (!(entry.task instanceof Task))
+        return;
+
+      try
+      {
+        Task task = (Task) entry.task;
+        task.reject(retry);
+      }
+      catch (Throwable e)
+      {
+        logger.log(Level.SEVERE,e.getMessage(),e);
+      }
+    }
+
+
+    public String name()
+    {
+      return(name);
+    }
+
+
+    public int size()
+    {
+      return(size);
+    }
+
+
+    public int threads()
+    {
+      return(threads);
+    }
+
+
+    /**
+     *
+     * Tasks submitted and not yet done, i.e. waiting or running.
+     *
+     */
+    public int running()
+    {
+      return(running.get());
+    }
+
+
+    public synchronized int waiting()
+    {
+      return(waiting.size());
+    }
+
+
+    public long rejected()
+    {
+      return(rejected.get());
+    }
+
+
+    public long dropped()
+    {
+      return(dropped.get());
+    }
+
+
+    public long expired()
+    {
+      return(expired.get());
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return("Stage["+name+"] waiting: "+waiting()+"/"+size+" rejected: "+rejected()+" dropped: "+dropped()+" expired: "+expired());
+    }
+  }
+
+
+  private static class Factory implements ThreadFactory
+  {
+    private final String name;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    Factory(String name)
+    {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable task)
+    {
+      return(new Thread(task,name+"-worker-"+next.incrementAndGet()));
+    }
+  }
+
+
+  private static class Entry
+  {
+    private final long deadline;
+    private final Runnable task;
+
+    Entry(Runnable task, long deadline)
+    {
+      this.task = task;
+      this.deadline = deadline > 0 ? System.currentTimeMillis() + deadline : 0;
+    }
 
-    workers.submit(task);
+    boolean expired()
+    {
+      return(deadline > 0 && System.currentTimeMillis() > deadline);
+    }
   }
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.KeyManager;
 import java.security.PrivateKey;
 import javax.net.ssl.TrustManager;
+import javax.net.ssl.SSLSessionContext;
 import java.security.cert.Certificate;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.TrustManagerFactory;
@@ -36,6 +37,8 @@ import java.security.cert.X509Certificate;
 public class PKIContext
 {
   private SSLContext ctx;
+  private int sescache = -1;
+  private int sestimeout = -1;
   private PrivateKey key;
   private KeyManager[] kmgrs;
   private TrustManager[] tmgrs;
@@ -49,6 +52,28 @@ public class PKIContext
   }
 
 
+  /**
+   *
+   * Size and timeout (secs) of the server session cache used for resumption.
+   *
+   */
+  public void setSessionCache(int size, int timeout) throws Exception
+  {
+    this.sescache = size;
+    this.sestimeout = timeout;
+    if (ctx != null) sessions(ctx);
+  }
+
+
+  private void sessions(SSLContext ctx)
+  {
+    SSLSessionContext sessions = ctx.getServerSessionContext();
+
+    if (sescache >= 0) sessions.setSessionCacheSize(sescache);
+    if (sestimeout >= 0) sessions.setSessionTimeout(sestimeout);
+  }
+
+
   private PKIContext setIdentity(Keystore def) throws Exception
   {
     this.ctx = null;
@@ -102,6 +127,7 @@ public class PKIContext
     {
       ctx = SSLContext.getInstance("TLS");
       ctx.init(kmgrs,tmgrs,new java.security.SecureRandom());
+      sessions(ctx);
 
       for (int i = 0; i < 256; i++)
       {
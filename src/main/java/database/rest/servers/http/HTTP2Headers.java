@@ -0,0 +1,483 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+
+
+/**
+ *
+ * HPACK (RFC 7541). Decodes header blocks from the client, keeping the dynamic table
+ * of the connection, and encodes response headers. Responses are encoded without the
+ * dynamic table and without Huffman, so encoding has no state and can be done by
+ * any thread. Decoding is done by the waiter only.
+ *
+ */
+class HTTP2Headers
+{
+  private int size = 0;
+  private int maxsize = TABLESIZE;
+
+  private final ArrayList<String[]> dynamic =
+    new ArrayList<String[]>();
+
+  static final int TABLESIZE = 4096;
+
+
+  /**
+   *
+   * Decodes a complete header block into name/value pairs.
+   *
+   */
+  ArrayList<String[]> decode(byte[] block, int len) throws Exception
+  {
+    Input in = new Input(block,len);
+    ArrayList<String[]> fields = new ArrayList<String[]>();
+
+    while(in.pos < len)
+    {
+      int b = block[in.pos] & 0xFF;
+
+      if ((b & 0x80) != 0)
+      {
+        // Indexed field
+        fields.add(entry(in.integer(7)));
+      }
+      else if ((b & 0x40) != 0)
+      {
+        // Literal with incremental indexing
+        String[] field = literal(in,6);
+        fields.add(field);
+        add(field);
+      }
+      else if ((b & 0x20) != 0)
+      {
+        // Dynamic table size update
+        int max = in.integer(5);
+
+        if (max > TABLESIZE)
+          throw new Exception("HPACK table size "+max+" exceeds "+TABLESIZE);
+
+        maxsize = max;
+        evict(0);
+      }
+      else
+      {
+        // Literal without indexing, or never indexed
+        fields.add(literal(in,4));
+      }
+    }
+
+    return(fields);
+  }
+
+
+  /**
+   *
+   * Encodes fields as literals without indexing. Names must be lower case.
+   *
+   */
+  static byte[] encode(ArrayList<String[]> fields)
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for(String[] field : fields)
+    {
+      int index = 0;
+
+      for (int i = 1; i < STATIC.length; i++)
+      {
+        if (!STATIC[i][0].equals(field[0])) continue;
+        if (index == 0) index = i;
+
+        if (STATIC[i][1].equals(field[1]))
+        {
+          index = -i;
+          break;
+        }
+      }
+
+      if (index < 0)
+      {
+        integer(out,0x80,7,-index);
+        continue;
+      }
+
+      integer(out,0x00,4,index);
+      if (index == 0) string(out,field[0]);
+      string(out,field[1]);
+    }
+
+    return(out.toByteArray());
+  }
+
+
+  private String[] literal(Input in, int prefix) throws Exception
+  {
+    String name = null;
+    int index = in.integer(prefix);
+
+    if (index > 0) name = entry(index)[0];
+    else           name = in.string();
+
+    return(new String[] {name,in.string()});
+  }
+
+
+  private String[] entry(int index) throws Exception
+  {
+    if (index <= 0)
+      throw new Exception("HPACK invalid index "+index);
+
+    if (index < STATIC.length)
+      return(STATIC[index]);
+
+    int dyn = index - STATIC.length;
+
+    if (dyn >= dynamic.size())
+      throw new Exception("HPACK invalid index "+index);
+
+    return(dynamic.get(dynamic.size()-1-dyn));
+  }
+
+
+  private void add(String[] field)
+  {
+    int esize = field[0].length() + field[1].length() + 32;
+
+    evict(esize);
+    if (esize > maxsize) return;
+
+    dynamic.add(field);
+    size += esize;
+  }
+
+
+  private void evict(int room)
+  {
+    int evict = 0;
+
+    while(evict < dynamic.size() && size + room > maxsize)
+    {
+      String[] field = dynamic.get(evict++);
+      size -= field[0].length() + field[1].length() + 32;
+    }
+
+    if (evict > 0)
+      dynamic.subList(0,evict).clear();
+  }
+
+
+  private static void integer(ByteArrayOutputStream out, int bits, int prefix, int value)
+  {
+    int max = (1 << prefix) - 1;
+
+    if (value < max)
+    {
+      out.write(bits | value);
+      return;
+    }
+
+    out.write(bits | max);
+    value -= max;
+
+    while(value >= 0x80)
+    {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    out.write(value);
+  }
+
+
+  private static void string(ByteArrayOutputStream out, String value)
+  {
+    byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+    integer(out,0x00,7,bytes.length);
+    out.write(bytes,0,bytes.length);
+  }
+
+
+  private static class Input
+  {
+    private int pos = 0;
+    private final int len;
+    private final byte[] data;
+
+    Input(byte[] data, int len)
+    {
+      this.len = len;
+      this.data = data;
+    }
+
+    private int next() throws Exception
+    {
+      if (pos >= len) throw new Exception("HPACK truncated header block");
+      return(data[pos++] & 0xFF);
+    }
+
+    int integer(int prefix) throws Exception
+    {
+      int max = (1 << prefix) - 1;
+      int value = next() & max;
+
+      if (value < max)
+        return(value);
+
+      int shift = 0;
+      int b = 0;
+
+      do
+      {
+        if (shift > 21) throw new Exception("HPACK integer overflow");
+        b = next();
+        value += (b & 0x7F) << shift;
+        shift += 7;
+      }
+      while((b & 0x80) != 0);
+
+      return(value);
+    }
+
+    String string() throws Exception
+    {
+      boolean huffman = (data[pos] & 0x80) != 0;
+      int length = integer(7);
+
+      if (length > len - pos)
+        throw new Exception("HPACK truncated header block");
+
+      String value = huffman ? huffman(data,pos,length) : new String(data,pos,length,java.nio.charset.StandardCharsets.ISO_8859_1);
+
+      pos += length;
+      return(value);
+    }
+  }
+
+
+  /**
+   *
+   * Walks the Huffman tree one bit at a time. Padding is at most
+   * 7 bits of the EOS code, i.e. all ones.
+   *
+   */
+  private static String huffman(byte[] data, int pos, int len) throws Exception
+  {
+    int node = 0;
+    int bits = 0;
+    StringBuilder str = new StringBuilder(len * 8 / 5);
+
+    for (int i = pos; i < pos + len; i++)
+    {
+      int b = data[i] & 0xFF;
+
+      for (int bit = 7; bit >= 0; bit--)
+      {
+        node = TREE[node][(b >>> bit) & 1];
+        bits++;
+
+        if (node <= 0)
+          throw new Exception("HPACK invalid Huffman code");
+
+        if (SYMBOL[node] >= 0)
+        {
+          if (SYMBOL[node] == 256)
+            throw new Exception("HPACK EOS in Huffman string");
+
+          str.append((char) SYMBOL[node]);
+          node = 0;
+          bits = 0;
+        }
+      }
+    }
+
+    if (bits > 7)
+      throw new Exception("HPACK invalid Huffman padding");
+
+    return(str.toString());
+  }
+
+
+  private static final String[][] STATIC =
+  {
+    null,
+    {":authority",""},
+    {":method","GET"},
+    {":method","POST"},
+    {":path","/"},
+    {":path","/index.html"},
+    {":scheme","http"},
+    {":scheme","https"},
+    {":status","200"},
+    {":status","204"},
+    {":status","206"},
+    {":status","304"},
+    {":status","400"},
+    {":status","404"},
+    {":status","500"},
+    {"accept-charset",""},
+    {"accept-encoding","gzip, deflate"},
+    {"accept-language",""},
+    {"accept-ranges",""},
+    {"accept",""},
+    {"access-control-allow-origin",""},
+    {"age",""},
+    {"allow",""},
+    {"authorization",""},
+    {"cache-control",""},
+    {"content-disposition",""},
+    {"content-encoding",""},
+    {"content-language",""},
+    {"content-length",""},
+    {"content-location",""},
+    {"content-range",""},
+    {"content-type",""},
+    {"cookie",""},
+    {"date",""},
+    {"etag",""},
+    {"expect",""},
+    {"expires",""},
+    {"from",""},
+    {"host",""},
+    {"if-match",""},
+    {"if-modified-since",""},
+    {"if-none-match",""},
+    {"if-range",""},
+    {"if-unmodified-since",""},
+    {"last-modified",""},
+    {"link",""},
+    {"location",""},
+    {"max-forwards",""},
+    {"proxy-authenticate",""},
+    {"proxy-authorization",""},
+    {"range",""},
+    {"referer",""},
+    {"refresh",""},
+    {"retry-after",""},
+    {"server",""},
+    {"set-cookie",""},
+    {"strict-transport-security",""},
+    {"transfer-encoding",""},
+    {"user-agent",""},
+    {"vary",""},
+    {"via",""},
+    {"www-authenticate",""}
+  };
+
+
+  // RFC 7541 Appendix B, code and length in bits per symbol, 256 is EOS
+  private static final int[] CODES =
+  {
+        0x1ff8,   0x7fffd8,  0xfffffe2,  0xfffffe3,  0xfffffe4,  0xfffffe5,  0xfffffe6,  0xfffffe7,
+     0xfffffe8,   0xffffea, 0x3ffffffc,  0xfffffe9,  0xfffffea, 0x3ffffffd,  0xfffffeb,  0xfffffec,
+     0xfffffed,  0xfffffee,  0xfffffef,  0xffffff0,  0xffffff1,  0xffffff2, 0x3ffffffe,  0xffffff3,
+     0xffffff4,  0xffffff5,  0xffffff6,  0xffffff7,  0xffffff8,  0xffffff9,  0xffffffa,  0xffffffb,
+          0x14,      0x3f8,      0x3f9,      0xffa,     0x1ff9,       0x15,       0xf8,      0x7fa,
+         0x3fa,      0x3fb,       0xf9,      0x7fb,       0xfa,       0x16,       0x17,       0x18,
+           0x0,        0x1,        0x2,       0x19,       0x1a,       0x1b,       0x1c,       0x1d,
+          0x1e,       0x1f,       0x5c,       0xfb,     0x7ffc,       0x20,      0xffb,      0x3fc,
+        0x1ffa,       0x21,       0x5d,       0x5e,       0x5f,       0x60,       0x61,       0x62,
+          0x63,       0x64,       0x65,       0x66,       0x67,       0x68,       0x69,       0x6a,
+          0x6b,       0x6c,       0x6d,       0x6e,       0x6f,       0x70,       0x71,       0x72,
+          0xfc,       0x73,       0xfd,     0x1ffb,    0x7fff0,     0x1ffc,     0x3ffc,       0x22,
+        0x7ffd,        0x3,       0x23,        0x4,       0x24,        0x5,       0x25,       0x26,
+          0x27,        0x6,       0x74,       0x75,       0x28,       0x29,       0x2a,        0x7,
+          0x2b,       0x76,       0x2c,        0x8,        0x9,       0x2d,       0x77,       0x78,
+          0x79,       0x7a,       0x7b,     0x7ffe,      0x7fc,     0x3ffd,     0x1ffd,  0xffffffc,
+       0xfffe6,   0x3fffd2,    0xfffe7,    0xfffe8,   0x3fffd3,   0x3fffd4,   0x3fffd5,   0x7fffd9,
+      0x3fffd6,   0x7fffda,   0x7fffdb,   0x7fffdc,   0x7fffdd,   0x7fffde,   0xffffeb,   0x7fffdf,
+      0xffffec,   0xffffed,   0x3fffd7,   0x7fffe0,   0xffffee,   0x7fffe1,   0x7fffe2,   0x7fffe3,
+      0x7fffe4,   0x1fffdc,   0x3fffd8,   0x7fffe5,   0x3fffd9,   0x7fffe6,   0x7fffe7,   0xffffef,
+      0x3fffda,   0x1fffdd,    0xfffe9,   0x3fffdb,   0x3fffdc,   0x7fffe8,   0x7fffe9,   0x1fffde,
+      0x7fffea,   0x3fffdd,   0x3fffde,   0xfffff0,   0x1fffdf,   0x3fffdf,   0x7fffeb,   0x7fffec,
+      0x1fffe0,   0x1fffe1,   0x3fffe0,   0x1fffe2,   0x7fffed,   0x3fffe1,   0x7fffee,   0x7fffef,
+       0xfffea,   0x3fffe2,   0x3fffe3,   0x3fffe4,   0x7ffff0,   0x3fffe5,   0x3fffe6,   0x7ffff1,
+     0x3ffffe0,  0x3ffffe1,    0xfffeb,    0x7fff1,   0x3fffe7,   0x7ffff2,   0x3fffe8,  0x1ffffec,
+     0x3ffffe2,  0x3ffffe3,  0x3ffffe4,  0x7ffffde,  0x7ffffdf,  0x3ffffe5,   0xfffff1,  0x1ffffed,
+       0x7fff2,   0x1fffe3,  0x3ffffe6,  0x7ffffe0,  0x7ffffe1,  0x3ffffe7,  0x7ffffe2,   0xfffff2,
+      0x1fffe4,   0x1fffe5,  0x3ffffe8,  0x3ffffe9,  0xffffffd,  0x7ffffe3,  0x7ffffe4,  0x7ffffe5,
+       0xfffec,   0xfffff3,    0xfffed,   0x1fffe6,   0x3fffe9,   0x1fffe7,   0x1fffe8,   0x7ffff3,
+      0x3fffea,   0x3fffeb,  0x1ffffee,  0x1ffffef,   0xfffff4,   0xfffff5,  0x3ffffea,   0x7ffff4,
+     0x3ffffeb,  0x7ffffe6,  0x3ffffec,  0x3ffffed,  0x7ffffe7,  0x7ffffe8,  0x7ffffe9,  0x7ffffea,
+     0x7ffffeb,  0xffffffe,  0x7ffffec,  0x7ffffed,  0x7ffffee,  0x7ffffef,  0x7fffff0,  0x3ffffee,
+    0x3fffffff
+  };
+
+
+  private static final int[] LENGTHS =
+  {
+    13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+    28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+     6, 10, 10, 12, 13,  6,  8, 11, 10, 10,  8, 11,  8,  6,  6,  6,
+     5,  5,  5,  6,  6,  6,  6,  6,  6,  6,  7,  8, 15,  6, 12, 10,
+    13,  6,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,  7,
+     7,  7,  7,  7,  7,  7,  7,  7,  8,  7,  8, 13, 19, 13, 14,  6,
+    15,  5,  6,  5,  6,  5,  6,  6,  6,  5,  7,  7,  6,  6,  6,  5,
+     6,  7,  6,  5,  5,  6,  7,  7,  7,  7,  7, 15, 11, 14, 13, 28,
+    20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+    24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+    22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+    21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+    26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+    19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+    20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+    26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+    30
+  };
+
+
+  private static final int[][] TREE;
+  private static final int[] SYMBOL;
+
+  static
+  {
+    int nodes = 1;
+    int[][] tree = new int[513][2];
+    int[] symbol = new int[513];
+
+    java.util.Arrays.fill(symbol,-1);
+
+    for (int sym = 0; sym <= 256; sym++)
+    {
+      int node = 0;
+      int code = CODES[sym];
+      int length = LENGTHS[sym];
+
+      for (int bit = length - 1; bit >= 0; bit--)
+      {
+        int dir = (code >>> bit) & 1;
+
+        if (tree[node][dir] == 0)
+          tree[node][dir] = nodes++;
+
+        node = tree[node][dir];
+      }
+
+      symbol[node] = sym;
+    }
+
+    TREE = tree;
+    SYMBOL = symbol;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,975 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ *
+ * HTTP/2 (RFC 9113) on a connection, either h2 negotiated with ALPN or h2c with prior knowledge.
+ * The waiter feeds it the bytes read. Each stream becomes an HTTPRequest, rebuilt as HTTP/1.1,
+ * and is dispatched like any other request, so handlers are unchanged. Responses are taken apart
+ * again into HEADERS and DATA frames. DATA is sent within the flow control windows of the client,
+ * and what doesn't fit waits for WINDOW_UPDATE. Frames are read by the waiter thread only,
+ * responses are written by the workers, both under the lock of the session.
+ *
+ */
+class HTTP2Session
+{
+  private int lastid = 0;
+  private int preface = 0;
+  private boolean closed = false;
+
+  private int maxframe = FRAME;
+  private long buffered = 0;
+  private long initwin = WINDOW;
+  private long window = WINDOW;
+
+  private int hfill = 0;
+  private int pfill = 0;
+  private int plength = 0;
+  private final byte[] fhead = new byte[9];
+  private final byte[] payload = new byte[FRAME];
+
+  private int blen = 0;
+  private int cflags = 0;
+  private int cstream = 0;
+  private byte[] block = new byte[1024];
+
+  private final int maxstreams;
+  private final int maxbuffer;
+  private final HTTPWaiter waiter;
+  private final HTTPChannel channel;
+
+  private final HTTP2Headers hpack =
+    new HTTP2Headers();
+
+  private final HashMap<Integer,HTTP2Stream> streams =
+    new HashMap<Integer,HTTP2Stream>();
+
+  private static final int DATA = 0x0;
+  private static final int HEADERS = 0x1;
+  private static final int PRIORITY = 0x2;
+  private static final int RST_STREAM = 0x3;
+  private static final int SETTINGS = 0x4;
+  private static final int PUSH_PROMISE = 0x5;
+  private static final int PING = 0x6;
+  private static final int GOAWAY = 0x7;
+  private static final int WINDOW_UPDATE = 0x8;
+  private static final int CONTINUATION = 0x9;
+
+  private static final int ACK = 0x1;
+  private static final int END_STREAM = 0x1;
+  private static final int END_HEADERS = 0x4;
+  private static final int PADDED = 0x8;
+  private static final int PRIORITIZED = 0x20;
+
+  private static final int PROTOCOL_ERROR = 0x1;
+  private static final int FLOW_CONTROL_ERROR = 0x3;
+  private static final int STREAM_CLOSED = 0x5;
+  private static final int FRAME_SIZE_ERROR = 0x6;
+  private static final int REFUSED_STREAM = 0x7;
+  private static final int CANCEL = 0x8;
+  private static final int COMPRESSION_ERROR = 0x9;
+
+  private static final int FRAME = 16384;
+  private static final int WINDOW = 65535;
+  private static final int MAXBLOCK = 65536;
+  private static final long MAXWINDOW = Integer.MAX_VALUE;
+
+  private static final String EOL = "\r\n";
+  private static final byte[] PREFACE = "SM\r\n\r\n".getBytes();
+
+  private final static Logger logger = Logger.getLogger("http");
+
+
+  /**
+   *
+   * Created when the waiter has parsed "PRI * HTTP/2.0", i.e. the first part of the
+   * client preface. Sends the server preface, i.e. the settings of the server.
+   *
+   */
+  HTTP2Session(HTTPWaiter waiter, HTTPChannel client) throws Exception
+  {
+    this.waiter = waiter;
+    this.channel = client;
+    this.maxstreams = client.config().getHTTP().maxstreams;
+    this.maxbuffer = client.config().getHTTP().h2buffer;
+
+    int recvwin = client.config().getHTTP().h2window;
+
+    ByteBuffer settings = ByteBuffer.allocate(12);
+    settings.putShort((short) 0x3).putInt(maxstreams);
+    settings.putShort((short) 0x4).putInt(recvwin);
+    settings.flip();
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    out.add(header(12,SETTINGS,0,0));
+    out.add(settings);
+
+    if (recvwin > WINDOW)
+      out.addAll(windowupdate(0,recvwin-WINDOW));
+
+    write(out);
+  }
+
+
+  /**
+   *
+   * Streams in progress. The connection is not idle while there are any.
+   *
+   */
+  synchronized int active()
+  {
+    return(streams.size());
+  }
+
+
+  /**
+   *
+   * Consumes the bytes read. Frames are handled when complete.
+   *
+   */
+  void add(ByteBuffer buf) throws Exception
+  {
+    while(preface < PREFACE.length && buf.hasRemaining())
+    {
+      if (buf.get() != PREFACE[preface++])
+      {
+        goaway(PROTOCOL_ERROR,"Invalid client preface");
+        return;
+      }
+    }
+
+    while(buf.hasRemaining() && !closed)
+    {
+      if (hfill < fhead.length)
+      {
+        int len = Math.min(fhead.length-hfill,buf.remaining());
+
+        buf.get(fhead,hfill,len);
+        hfill += len;
+
+        if (hfill < fhead.length)
+          return;
+
+        pfill = 0;
+        plength = ((fhead[0] & 0xFF) << 16) | ((fhead[1] & 0xFF) << 8) | (fhead[2] & 0xFF);
+
+        if (plength > FRAME)
+        {
+          goaway(FRAME_SIZE_ERROR,"Frame of "+plength+" bytes");
+          return;
+        }
+      }
+
+      int len = Math.min(plength-pfill,buf.remaining());
+
+      buf.get(payload,pfill,len);
+      pfill += len;
+
+      if (pfill < plength)
+        return;
+
+      hfill = 0;
+
+      int type = fhead[3] & 0xFF;
+      int flags = fhead[4] & 0xFF;
+      int id = ((fhead[5] & 0x7F) << 24) | ((fhead[6] & 0xFF) << 16) | ((fhead[7] & 0xFF) << 8) | (fhead[8] & 0xFF);
+
+      frame(type,flags,id,plength);
+    }
+  }
+
+
+  private void frame(int type, int flags, int id, int len) throws Exception
+  {
+    if (cstream != 0 && type != CONTINUATION)
+    {
+      goaway(PROTOCOL_ERROR,"Expected CONTINUATION");
+      return;
+    }
+
+    switch(type)
+    {
+      case DATA:
+        data(flags,id,len);
+        break;
+
+      case HEADERS:
+        headers(flags,id,len);
+        break;
+
+      case PRIORITY:
+        break;
+
+      case RST_STREAM:
+        if (len != 4) goaway(FRAME_SIZE_ERROR,"RST_STREAM of "+len+" bytes");
+        else cancel(id);
+        break;
+
+      case SETTINGS:
+        settings(flags,id,len);
+        break;
+
+      case PUSH_PROMISE:
+        goaway(PROTOCOL_ERROR,"PUSH_PROMISE from client");
+        break;
+
+      case PING:
+        if (len != 8) goaway(FRAME_SIZE_ERROR,"PING of "+len+" bytes");
+        else if ((flags & ACK) == 0) ping();
+        break;
+
+      case GOAWAY:
+        logger.fine("HTTP/2 client sent GOAWAY");
+        break;
+
+      case WINDOW_UPDATE:
+        if (len != 4) goaway(FRAME_SIZE_ERROR,"WINDOW_UPDATE of "+len+" bytes");
+        else update(id);
+        break;
+
+      case CONTINUATION:
+        continuation(flags,id,len);
+        break;
+
+      default:
+        // Unknown frames are ignored
+        break;
+    }
+  }
+
+
+  private void headers(int flags, int id, int len) throws Exception
+  {
+    if (id == 0 || (id & 1) == 0)
+    {
+      goaway(PROTOCOL_ERROR,"HEADERS on stream "+id);
+      return;
+    }
+
+    int pos = 0;
+    int end = len;
+
+    if ((flags & PADDED) != 0)
+    {
+      if (len < 1) {goaway(PROTOCOL_ERROR,"Invalid padding"); return;}
+      end -= payload[0] & 0xFF;
+      pos++;
+    }
+
+    if ((flags & PRIORITIZED) != 0)
+      pos += 5;
+
+    if (pos > end)
+    {
+      goaway(PROTOCOL_ERROR,"Invalid HEADERS frame");
+      return;
+    }
+
+    blen = 0;
+    cstream = id;
+    cflags = flags;
+
+    fragment(pos,end-pos);
+  }
+
+
+  private void continuation(int flags, int id, int len) throws Exception
+  {
+    if (cstream == 0 || id != cstream)
+    {
+      goaway(PROTOCOL_ERROR,"Unexpected CONTINUATION");
+      return;
+    }
+
+    cflags |= flags & END_HEADERS;
+    fragment(0,len);
+  }
+
+
+  private void fragment(int pos, int len) throws Exception
+  {
+    if (blen + len > MAXBLOCK)
+    {
+      goaway(PROTOCOL_ERROR,"Header block exceeds "+MAXBLOCK+" bytes");
+      return;
+    }
+
+    if (blen + len > block.length)
+    {
+      byte[] block = new byte[Math.max(blen+len,2*this.block.length)];
+      System.arraycopy(this.block,0,block,0,blen);
+      this.block = block;
+    }
+
+    System.arraycopy(payload,pos,block,blen,len);
+    blen += len;
+
+    if ((cflags & END_HEADERS) != 0)
+      block();
+  }
+
+
+  /**
+   *
+   * A complete header block. Either a new stream or trailers, that are dropped.
+   *
+   */
+  private void block() throws Exception
+  {
+    int id = cstream;
+    boolean end = (cflags & END_STREAM) != 0;
+
+    cstream = 0;
+    ArrayList<String[]> fields = null;
+
+    // Must be decoded even if refused, the table is shared by all streams
+    try {fields = hpack.decode(block,blen);}
+    catch (Exception e)
+    {
+      goaway(COMPRESSION_ERROR,e.getMessage());
+      return;
+    }
+
+    int error = 0;
+    HTTP2Stream stream = null;
+
+    synchronized(this)
+    {
+      stream = streams.get(id);
+
+      if (stream == null && id > lastid)
+      {
+        lastid = id;
+
+        if (streams.size() < maxstreams) streams.put(id,stream = new HTTP2Stream(this,id,initwin,fields));
+        else error = REFUSED_STREAM;
+      }
+      else if (stream == null)
+      {
+        error = STREAM_CLOSED;
+      }
+      else if (!end || stream.remote)
+      {
+        // Only trailers may follow the request headers
+        error = PROTOCOL_ERROR;
+      }
+    }
+
+    if (error != 0)
+    {
+      if (error == REFUSED_STREAM) logger.fine("HTTP/2 max concurrent streams "+maxstreams+" reached");
+      reset(id,error);
+      return;
+    }
+
+    if (end)
+    {
+      stream.remote = true;
+      complete(stream);
+    }
+  }
+
+
+  private void data(int flags, int id, int len) throws Exception
+  {
+    if (id == 0)
+    {
+      goaway(PROTOCOL_ERROR,"DATA on stream 0");
+      return;
+    }
+
+    int pos = 0;
+    int end = len;
+
+    if ((flags & PADDED) != 0)
+    {
+      if (len < 1) {goaway(PROTOCOL_ERROR,"Invalid padding"); return;}
+      end -= payload[0] & 0xFF;
+      pos++;
+    }
+
+    if (pos > end)
+    {
+      goaway(PROTOCOL_ERROR,"Invalid DATA frame");
+      return;
+    }
+
+    int error = 0;
+    HTTP2Stream stream = null;
+
+    synchronized(this)
+    {
+      stream = streams.get(id);
+
+      if (stream == null || stream.remote)
+      {
+        error = STREAM_CLOSED;
+      }
+      else if (buffered + end - pos > maxbuffer)
+      {
+        // Bodies are held until complete, drop rather than let one connection pin the heap
+        logger.warning("HTTP/2 request bodies on connection exceed "+maxbuffer+" bytes");
+        error = CANCEL;
+      }
+      else if (!stream.data(payload,pos,end-pos))
+      {
+        logger.warning("HTTP/2 request body exceeds max body size");
+        error = CANCEL;
+      }
+      else
+      {
+        buffered += end - pos;
+      }
+    }
+
+    // The whole frame counts, padding included. Held bytes are bounded by maxbuffer
+    if (len > 0) write(windowupdate(0,len));
+
+    if (error != 0)
+    {
+      reset(id,error);
+      return;
+    }
+
+    if ((flags & END_STREAM) != 0)
+    {
+      stream.remote = true;
+      complete(stream);
+    }
+    else if (len > 0)
+    {
+      write(windowupdate(id,len));
+    }
+  }
+
+
+  private void settings(int flags, int id, int len) throws Exception
+  {
+    if (id != 0)
+    {
+      goaway(PROTOCOL_ERROR,"SETTINGS on stream "+id);
+      return;
+    }
+
+    if ((flags & ACK) != 0)
+      return;
+
+    if (len % 6 != 0)
+    {
+      goaway(FRAME_SIZE_ERROR,"SETTINGS of "+len+" bytes");
+      return;
+    }
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    synchronized(this)
+    {
+      for (int i = 0; i < len; i += 6)
+      {
+        int setting = ((payload[i] & 0xFF) << 8) | (payload[i+1] & 0xFF);
+        long value = ((long) (payload[i+2] & 0xFF) << 24) | ((payload[i+3] & 0xFF) << 16) | ((payload[i+4] & 0xFF) << 8) | (payload[i+5] & 0xFF);
+
+        switch(setting)
+        {
+          case 0x4:
+            if (value > MAXWINDOW)
+            {
+              goaway(FLOW_CONTROL_ERROR,"Initial window "+value);
+              return;
+            }
+
+            long delta = value - initwin;
+            initwin = value;
+
+            for(HTTP2Stream stream : streams.values())
+              stream.window += delta;
+
+            break;
+
+          case 0x5:
+            if (value < FRAME || value > 0xFFFFFF)
+            {
+              goaway(PROTOCOL_ERROR,"Max frame size "+value);
+              return;
+            }
+
+            maxframe = (int) value;
+            break;
+
+          default:
+            // Header table size, push and others don't apply to responses as sent
+            break;
+        }
+      }
+
+      out.add(header(0,SETTINGS,ACK,0));
+      resume(out);
+
+      write(out);
+    }
+  }
+
+
+  private void update(int id) throws Exception
+  {
+    long inc = ((payload[0] & 0x7F) << 24) | ((payload[1] & 0xFF) << 16) | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+
+    if (inc == 0)
+    {
+      if (id == 0) goaway(PROTOCOL_ERROR,"WINDOW_UPDATE of 0");
+      else reset(id,PROTOCOL_ERROR);
+      return;
+    }
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    synchronized(this)
+    {
+      if (id == 0)
+      {
+        window += inc;
+
+        if (window > MAXWINDOW)
+        {
+          goaway(FLOW_CONTROL_ERROR,"Connection window exceeds "+MAXWINDOW);
+          return;
+        }
+
+        resume(out);
+      }
+      else
+      {
+        HTTP2Stream stream = streams.get(id);
+        if (stream == null) return;
+
+        stream.window += inc;
+
+        if (stream.window > MAXWINDOW)
+        {
+          streams.remove(id);
+          stream.reset = true;
+          out.addAll(rst(id,FLOW_CONTROL_ERROR));
+        }
+        else send(stream,out);
+      }
+
+      write(out);
+    }
+  }
+
+
+  private void ping() throws Exception
+  {
+    ByteBuffer data = ByteBuffer.allocate(8);
+    data.put(payload,0,8);
+    data.flip();
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    out.add(header(8,PING,ACK,0));
+    out.add(data);
+
+    write(out);
+  }
+
+
+  private void cancel(int id)
+  {
+    synchronized(this)
+    {
+      HTTP2Stream stream = streams.remove(id);
+      if (stream == null) return;
+
+      stream.reset = true;
+      release(stream);
+    }
+  }
+
+
+  /**
+   *
+   * The body is handed off or dropped, and no longer held by the connection.
+   *
+   */
+  private synchronized void release(HTTP2Stream stream)
+  {
+    for(byte[] segment : stream.body)
+      buffered -= segment.length;
+
+    stream.body.clear();
+  }
+
+
+  /**
+   *
+   * Rebuilds the stream as an HTTP/1.1 request and dispatches it.
+   *
+   */
+  private void complete(HTTP2Stream stream) throws Exception
+  {
+    String path = null;
+    String method = null;
+    String cookie = null;
+    String authority = null;
+
+    StringBuilder head = new StringBuilder();
+
+    for(String[] field : stream.fields)
+    {
+      switch(field[0])
+      {
+        case ":path"          : path = field[1]; break;
+        case ":method"        : method = field[1]; break;
+        case ":authority"     : authority = field[1]; break;
+        case ":scheme"        : break;
+        case "content-length" : break;
+
+        case "host":
+          if (authority == null) authority = field[1];
+          break;
+
+        case "cookie":
+          if (cookie == null) cookie = field[1];
+          else cookie += "; " + field[1];
+          break;
+
+        default:
+          if (!field[0].startsWith(":"))
+            head.append(name(field[0])).append(": ").append(field[1]).append(EOL);
+      }
+    }
+
+    stream.fields = null;
+
+    if (method == null || path == null)
+    {
+      reset(stream.id,PROTOCOL_ERROR);
+      return;
+    }
+
+    head.insert(0,method+" "+path+" HTTP/2"+EOL);
+
+    if (authority != null) head.append("Host: ").append(authority).append(EOL);
+    if (cookie != null) head.append("Cookie: ").append(cookie).append(EOL);
+
+    head.append("Content-Length: ").append(stream.received).append(EOL).append(EOL);
+
+    HTTPRequest request = new HTTPRequest(waiter,channel,stream);
+
+    try
+    {
+      request.add(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+      for(byte[] segment : stream.body)
+        request.add(segment);
+
+      release(stream);
+
+      if (!request.done())
+        throw new Exception("Incomplete HTTP/2 request");
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,e.getMessage(),e);
+      respond(stream,ByteBuffer.wrap(HTTPWaiter.err400(false)));
+      return;
+    }
+
+    try
+    {
+      waiter.dispatch(request);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+      respond(stream,ByteBuffer.wrap(HTTPWaiter.err500(false)));
+    }
+  }
+
+
+  /**
+   *
+   * Takes an HTTP/1.1 response apart into HEADERS and DATA frames.
+   * The header must be in the first buffer.
+   *
+   */
+  void respond(HTTP2Stream stream, ByteBuffer... data) throws Exception
+  {
+    ByteBuffer first = data[0];
+
+    int end = first.position();
+    int limit = first.limit();
+
+    while(end + 3 < limit)
+    {
+      if (first.get(end) == '\r' && first.get(end+1) == '\n' && first.get(end+2) == '\r' && first.get(end+3) == '\n')
+        break;
+
+      end++;
+    }
+
+    byte[] bytes = new byte[end-first.position()];
+    first.duplicate().get(bytes);
+
+    String[] lines = new String(bytes,StandardCharsets.ISO_8859_1).split(EOL);
+    String[] status = lines[0].split(" ");
+
+    ArrayList<String[]> fields = new ArrayList<String[]>();
+    fields.add(new String[] {":status",status.length > 1 ? status[1] : "500"});
+
+    for (int i = 1; i < lines.length; i++)
+    {
+      int pos = lines[i].indexOf(':');
+      if (pos <= 0) continue;
+
+      String name = lines[i].substring(0,pos).trim().toLowerCase();
+      String value = lines[i].substring(pos+1).trim();
+
+      switch(name)
+      {
+        case "connection"        :
+        case "keep-alive"        :
+        case "upgrade"           :
+        case "proxy-connection"  :
+        case "transfer-encoding" : break;
+        default: fields.add(new String[] {name,value});
+      }
+    }
+
+    ArrayList<ByteBuffer> body = new ArrayList<ByteBuffer>();
+
+    ByteBuffer rest = first.duplicate();
+    rest.position(Math.min(end+4,limit));
+    if (rest.hasRemaining()) body.add(rest);
+
+    for (int i = 1; i < data.length; i++)
+      if (data[i].hasRemaining()) body.add(data[i]);
+
+    byte[] block = HTTP2Headers.encode(fields);
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    synchronized(this)
+    {
+      if (stream.reset || closed)
+        return;
+
+      int pos = 0;
+      int type = HEADERS;
+
+      do
+      {
+        int len = Math.min(block.length-pos,maxframe);
+
+        int flags = 0;
+        if (pos + len == block.length) flags |= END_HEADERS;
+        if (type == HEADERS && body.isEmpty()) flags |= END_STREAM;
+
+        out.add(header(len,type,flags,stream.id));
+        out.add(ByteBuffer.wrap(block,pos,len));
+
+        pos += len;
+        type = CONTINUATION;
+      }
+      while(pos < block.length);
+
+      stream.pending.addAll(body);
+      send(stream,out);
+
+      write(out);
+    }
+  }
+
+
+  /**
+   *
+   * Sends as much of the pending body as the windows allow.
+   * The stream is done when all of it has been sent.
+   *
+   */
+  private void send(HTTP2Stream stream, ArrayList<ByteBuffer> out)
+  {
+    while(!stream.pending.isEmpty())
+    {
+      ByteBuffer buf = stream.pending.peek();
+      int size = (int) Math.min(Math.min(buf.remaining(),maxframe),Math.min(stream.window,window));
+
+      if (size <= 0)
+        return;
+
+      ByteBuffer chunk = buf.slice();
+      chunk.limit(size);
+      buf.position(buf.position()+size);
+
+      if (!buf.hasRemaining())
+        stream.pending.poll();
+
+      int flags = stream.pending.isEmpty() ? END_STREAM : 0;
+
+      out.add(header(size,DATA,flags,stream.id));
+      out.add(chunk);
+
+      window -= size;
+      stream.window -= size;
+    }
+
+    streams.remove(stream.id);
+  }
+
+
+  private void resume(ArrayList<ByteBuffer> out)
+  {
+    for(HTTP2Stream stream : new ArrayList<HTTP2Stream>(streams.values()))
+      if (!stream.pending.isEmpty()) send(stream,out);
+  }
+
+
+  private void reset(int id, int code) throws Exception
+  {
+    cancel(id);
+    write(rst(id,code));
+  }
+
+
+  private void goaway(int code, String reason) throws Exception
+  {
+    logger.warning("HTTP/2 connection error "+code+": "+reason);
+
+    int lastid = 0;
+
+    synchronized(this)
+    {
+      closed = true;
+      lastid = this.lastid;
+
+      for(HTTP2Stream stream : streams.values())
+      {
+        stream.reset = true;
+        stream.body.clear();
+      }
+
+      buffered = 0;
+      streams.clear();
+    }
+
+    ByteBuffer data = ByteBuffer.allocate(8);
+    data.putInt(lastid).putInt(code);
+    data.flip();
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    out.add(header(8,GOAWAY,0,0));
+    out.add(data);
+
+    write(out);
+    channel.failed();
+  }
+
+
+  /**
+   *
+   * Frames are written in the order built. The session is locked while building
+   * and queueing them, so DATA never passes the HEADERS or DATA before it. Writing
+   * only queues on the channel, and the channel never calls back into the session.
+   *
+   */
+  private synchronized void write(ArrayList<ByteBuffer> out) throws Exception
+  {
+    if (out.size() > 0)
+      channel.write(out.toArray(new ByteBuffer[0]));
+  }
+
+
+  private static ArrayList<ByteBuffer> rst(int id, int code)
+  {
+    ByteBuffer data = ByteBuffer.allocate(4);
+    data.putInt(code);
+    data.flip();
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    out.add(header(4,RST_STREAM,0,id));
+    out.add(data);
+
+    return(out);
+  }
+
+
+  private static ArrayList<ByteBuffer> windowupdate(int id, int inc)
+  {
+    ByteBuffer data = ByteBuffer.allocate(4);
+    data.putInt(inc);
+    data.flip();
+
+    ArrayList<ByteBuffer> out = new ArrayList<ByteBuffer>();
+
+    out.add(header(4,WINDOW_UPDATE,0,id));
+    out.add(data);
+
+    return(out);
+  }
+
+
+  private static ByteBuffer header(int length, int type, int flags, int id)
+  {
+    ByteBuffer header = ByteBuffer.allocate(9);
+
+    header.put((byte) (length >>> 16));
+    header.put((byte) (length >>> 8));
+    header.put((byte) length);
+    header.put((byte) type);
+    header.put((byte) flags);
+    header.putInt(id & 0x7FFFFFFF);
+
+    header.flip();
+    return(header);
+  }
+
+
+  /**
+   *
+   * Header names are lower case in HTTP/2. Handlers expect them as in HTTP/1.1, i.e. Content-Type.
+   *
+   */
+  private static String name(String name)
+  {
+    char[] chars = name.toCharArray();
+    boolean upper = true;
+
+    for (int i = 0; i < chars.length; i++)
+    {
+      if (upper) chars[i] = Character.toUpperCase(chars[i]);
+      upper = chars[i] == '-';
+    }
+
+    return(new String(chars));
+  }
+}
\ No newline at end of file
@@ -21,64 +21,63 @@
 
 package database.rest.servers.http;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+
+
+/**
+ *
+ * A stream on an HTTP/2 connection. Holds the request until complete,
+ * and the part of the response body waiting for flow control window.
+ *
+ */
+class HTTP2Stream
+{
+  final int id;
+  long window;
 
+  boolean reset = false;
+  boolean remote = false;
 
-public class HTTPReaper extends Thread
-{
-  private static int timeout;
-  private final Logger logger;
-  private final HTTPWaiterPool waiters;
-  private static HTTPReaper reaper = null;
+  int received = 0;
+  ArrayList<String[]> fields;
 
+  final ArrayList<byte[]> body =
+    new ArrayList<byte[]>();
 
-  synchronized static void start(Logger logger, HTTPWaiterPool waiters, int timeout) throws Exception
-  {
-    if (reaper == null)
-    {
-      HTTPReaper.timeout = timeout;
-      reaper = new HTTPReaper(logger,waiters);
-    }
-  }
+  final ArrayDeque<ByteBuffer> pending =
+    new ArrayDeque<ByteBuffer>();
+
+  private final HTTP2Session session;
 
 
-  public static int KeepAlive()
+  HTTP2Stream(HTTP2Session session, int id, long window, ArrayList<String[]> fields)
   {
-    return(timeout/1000);
+    this.id = id;
+    this.fields = fields;
+    this.window = window;
+    this.session = session;
   }
 
 
-  private HTTPReaper(Logger logger, HTTPWaiterPool waiters)
+  boolean data(byte[] data, int pos, int len)
   {
-    this.logger = logger;
-    this.waiters = waiters;
+    if (len == 0) return(true);
+    if ((long) received + len > HTTPRequest.getMaxBody()) return(false);
+
+    byte[] segment = new byte[len];
+    System.arraycopy(data,pos,segment,0,len);
 
-    this.setDaemon(true);
-    this.setName("HTTPReaper");
+    body.add(segment);
+    received += len;
 
-    this.start();
+    return(true);
   }
 
 
-  public void run()
+  void respond(ByteBuffer... data) throws Exception
   {
-    HTTPWaiter[] waiters =
-      this.waiters.getWaiters();
-
-    try
-    {
-      while(true)
-      {
-        sleep(timeout);
-
-        for(HTTPWaiter waiter : waiters)
-          waiter.cleanout();
-      }
-    }
-    catch (Exception e)
-    {
-      logger.log(Level.SEVERE,e.getMessage(),e);
-    }
+    session.respond(this,data);
   }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ *
+ * Recycles direct ByteBuffers of a given size.
+ * Each size has one pool, striped per core to keep waiters and workers from
+ * contending on the same queue. Buffers of another size (i.e. enlarged) are dropped on release.
+ *
+ */
+public class HTTPBufferPool
+{
+  private final int size;
+  private final int capacity;
+  private final ArrayBlockingQueue<ByteBuffer>[] stripes;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong dropped = new AtomicLong(0);
+  private final AtomicLong outstanding = new AtomicLong(0);
+
+  private static int CAPACITY = 1024;
+  private static final int STRIPES = Runtime.getRuntime().availableProcessors();
+
+  private static final ConcurrentHashMap<Integer,HTTPBufferPool> pools =
+    new ConcurrentHashMap<Integer,HTTPBufferPool>();
+
+
+  public static void setCapacity(int capacity)
+  {
+    CAPACITY = capacity;
+  }
+
+
+  public static HTTPBufferPool get(int size)
+  {
+    HTTPBufferPool pool = pools.get(size);
+    if (pool != null) return(pool);
+
+    pools.putIfAbsent(size,new HTTPBufferPool(size,CAPACITY));
+    return(pools.get(size));
+  }
+
+
+  public static ArrayList<HTTPBufferPool> pools()
+  {
+    return(new ArrayList<HTTPBufferPool>(pools.values()));
+  }
+
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private HTTPBufferPool(int size, int capacity)
+  {
+    this.size = size;
+    this.capacity = capacity;
+
+    int stripe = capacity / STRIPES;
+    if (stripe < 1) stripe = 1;
+
+    this.stripes = new ArrayBlockingQueue[STRIPES];
+
+    for (int i = 0; i < stripes.length; i++)
+      stripes[i] = new ArrayBlockingQueue<ByteBuffer>(stripe);
+  }
+
+
+  public ByteBuffer take() throws Exception
+  {
+    int home = stripe();
+    ByteBuffer buf = null;
+
+    for (int i = 0; i < stripes.length && buf == null; i++)
+      buf = stripes[(home+i) % stripes.length].poll();
+
+    if (buf != null)
+    {
+      hits.incrementAndGet();
+    }
+    else
+    {
+      misses.incrementAndGet();
+      buf = ByteBuffer.allocateDirect(size);
+
+      if (buf == null)
+        throw new Exception("Unable to allocate ByteBuffer");
+    }
+
+    outstanding.incrementAndGet();
+    return(buf);
+  }
+
+
+  public void release(ByteBuffer buf)
+  {
+    if (buf == null)
+      return;
+
+    if (!buf.isDirect() || buf.capacity() != size)
+    {
+      // Enlarged, never taken from this pool
+      dropped.incrementAndGet();
+      return;
+    }
+
+    buf.clear();
+    outstanding.decrementAndGet();
+
+    if (!stripes[stripe()].offer(buf))
+      dropped.incrementAndGet();
+  }
+
+
+  public int size()
+  {
+    return(size);
+  }
+
+
+  public int capacity()
+  {
+    return(capacity);
+  }
+
+
+  public int pooled()
+  {
+    int pooled = 0;
+
+    for (int i = 0; i < stripes.length; i++)
+      pooled += stripes[i].size();
+
+    return(pooled);
+  }
+
+
+  public long hits()
+  {
+    return(hits.get());
+  }
+
+
+  public long misses()
+  {
+    return(misses.get());
+  }
+
+
+  public long dropped()
+  {
+    return(dropped.get());
+  }
+
+
+  /**
+   *
+   * Buffers taken and not yet released. Buffers that are never released
+   * are reclaimed by the garbage collector, but show up here as leaks.
+   *
+   */
+  public long outstanding()
+  {
+    return(outstanding.get());
+  }
+
+
+  private int stripe()
+  {
+    return((int) (Thread.currentThread().threadId() % stripes.length));
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return("BufferPool["+size+"] hits: "+hits()+" misses: "+misses()+" outstanding: "+outstanding()+" pooled: "+pooled()+" dropped: "+dropped());
+  }
+}
\ No newline at end of file
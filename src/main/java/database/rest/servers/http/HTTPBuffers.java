@@ -36,6 +36,9 @@ class HTTPBuffers
   private final int psize;
   private final boolean ssl;
 
+  private final HTTPBufferPool apool;
+  private final HTTPBufferPool ppool;
+
   private static int SIZE = 4*1024;
 
 
@@ -51,6 +54,8 @@ class HTTPBuffers
     this.psize = 0;
     this.size = SIZE;
     this.ssl = false;
+    this.ppool = null;
+    this.apool = HTTPBufferPool.get(size);
   }
 
 
@@ -60,6 +65,8 @@ class HTTPBuffers
     this.size = SIZE;
     this.asize = asize;
     this.psize = psize;
+    this.apool = HTTPBufferPool.get(asize);
+    this.ppool = HTTPBufferPool.get(psize);
   }
 
 
@@ -71,41 +78,75 @@ class HTTPBuffers
 
   public void alloc(boolean free) throws Exception
   {
-    if (free) done();
+    if (free) free();
     alloc();
   }
 
 
   public void alloc() throws Exception
   {
-    this.data = ByteBuffer.allocateDirect(size);
-    if (ssl) this.sslb = ByteBuffer.allocateDirect(psize);
-
-    if (data == null || (ssl & sslb == null))
-      throw new Exception("Unable to allocate ByteBuffer");
+    this.data = apool.take();
+    if (ssl) this.sslb = ppool.take();
   }
 
 
   public void handshake() throws Exception
   {
-    this.data = ByteBuffer.allocateDirect(asize);
-    this.send = ByteBuffer.allocateDirect(psize);
-    this.recv = ByteBuffer.allocateDirect(psize);
+    this.data = apool.take();
+    this.send = ppool.take();
+    this.recv = ppool.take();
+  }
 
-    if (data == null || send == null || recv == null)
-      throw new Exception("Unable to allocate ByteBuffer");
+
+  /**
+   *
+   * A pooled packet buffer for the caller, who owns it until release().
+   *
+   */
+  public ByteBuffer packet() throws Exception
+  {
+    return(ppool.take());
   }
 
 
+  /**
+   *
+   * Returns the data buffer to the caller, who owns it until release().
+   * All other buffers goes back to the pool.
+   *
+   */
   public ByteBuffer done()
   {
     ByteBuffer data = this.data;
 
+    this.data = null;
+    free();
+
+    return(data);
+  }
+
+
+  public void free()
+  {
+    apool.release(this.data);
+
+    if (ssl)
+    {
+      ppool.release(this.sslb);
+      ppool.release(this.send);
+      ppool.release(this.recv);
+    }
+
     this.data = null;
     this.sslb = null;
     this.send = null;
     this.recv = null;
+  }
 
-    return(data);
+
+  public void release(ByteBuffer buf)
+  {
+    if (ssl && buf != null && buf.capacity() == psize) ppool.release(buf);
+    else apool.release(buf);
   }
 }
\ No newline at end of file
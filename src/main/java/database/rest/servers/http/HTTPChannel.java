@@ -22,8 +22,12 @@
 package database.rest.servers.http;
 
 import java.net.Socket;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLParameters;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.net.InetSocketAddress;
@@ -31,8 +35,11 @@ import database.rest.config.Config;
 import database.rest.servers.Server;
 import javax.net.ssl.SSLEngineResult;
 import database.rest.pools.ThreadPool;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import database.rest.security.PKIContext;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 
@@ -40,22 +47,43 @@ import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 public class HTTPChannel
 {
   private int attempt;
+  private long pending;
   private long touched;
+  private boolean busy;
+  private boolean held;
+  private boolean closing;
+  private SelectionKey key;
+  private ByteBuffer packet;
   private boolean stayalive;
   private boolean permanent;
   private boolean connected;
+  private HTTP2Session http2;
 
   private final boolean ssl;
   private final boolean admin;
   private final boolean reqssl;
+  private final int maxpending;
 
   private final Server server;
   private final Config config;
   private final SSLEngine engine;
   private final ThreadPool workers;
   private final HTTPBuffers buffers;
+  private final HTTPBuffers wbuffers;
   private final SocketChannel channel;
 
+  private final ArrayDeque<HTTPRequest> pipeline =
+    new ArrayDeque<HTTPRequest>();
+
+  private final ArrayDeque<ByteBuffer> outbound =
+    new ArrayDeque<ByteBuffer>();
+
+  private final ArrayDeque<Transfer> transfers =
+    new ArrayDeque<Transfer>();
+
+  private final static int GATHER = 8;
+  private final static ByteBuffer TRANSFER = ByteBuffer.allocate(0);
+  private final static int PIPELINE = 64;
   private final static Logger logger = Logger.getLogger("http");
 
 
@@ -71,11 +99,13 @@ public class HTTPChannel
     this.config = server.config();
     this.touched = System.currentTimeMillis();
     this.reqssl = config.getPorts().sslredirect;
+    this.maxpending = config.getHTTP().maxpending;
 
     if (!ssl)
     {
       this.engine = null;
       this.buffers = new HTTPBuffers();
+      this.wbuffers = new HTTPBuffers();
       channel.socket().setSendBufferSize(buffers.size());
       channel.socket().setReceiveBufferSize(buffers.size());
     }
@@ -86,6 +116,7 @@ public class HTTPChannel
 
       this.engine.setUseClientMode(true);
       this.buffers = new HTTPBuffers(appsize(),packsize());
+      this.wbuffers = new HTTPBuffers(appsize(),packsize());
 
       channel.socket().setSendBufferSize(packsize());
       channel.socket().setReceiveBufferSize(packsize());
@@ -105,11 +136,13 @@ public class HTTPChannel
     this.config = server.config();
     this.touched = System.currentTimeMillis();
     this.reqssl = config.getPorts().sslredirect;
+    this.maxpending = config.getHTTP().maxpending;
 
     if (!ssl)
     {
       this.engine = null;
       this.buffers = new HTTPBuffers();
+      this.wbuffers = new HTTPBuffers();
       channel.socket().setSendBufferSize(buffers.size());
       channel.socket().setReceiveBufferSize(buffers.size());
     }
@@ -119,8 +152,17 @@ public class HTTPChannel
       this.engine = pki.getSSLContext().createSSLEngine();
 
       this.engine.setUseClientMode(false);
+
+      if (!admin && config.getHTTP().http2)
+      {
+        SSLParameters params = engine.getSSLParameters();
+        params.setApplicationProtocols(new String[] {"h2","http/1.1"});
+        this.engine.setSSLParameters(params);
+      }
+
       this.engine.setNeedClientAuth(admin);
       this.buffers = new HTTPBuffers(appsize(),packsize());
+      this.wbuffers = new HTTPBuffers(appsize(),packsize());
 
       channel.socket().setSendBufferSize(packsize());
       channel.socket().setReceiveBufferSize(packsize());
@@ -206,11 +248,138 @@ public class HTTPChannel
 
   void failed()
   {
+    synchronized(this)
+    {pipeline.clear();}
+
+    synchronized(outbound)
+    {
+      // Close when the response has been written
+      if (!drained())
+      {
+        closing = true;
+        return;
+      }
+    }
+
     try {channel.close();}
     catch (Exception e) {;}
   }
 
 
+  void register(SelectionKey key)
+  {
+    this.key = key;
+  }
+
+
+  SelectionKey key()
+  {
+    return(key);
+  }
+
+
+  /**
+   *
+   * HTTP/2 is allowed on the plain port, and on the ssl port if negotiated with ALPN.
+   *
+   */
+  boolean h2() throws Exception
+  {
+    if (admin || !config.getHTTP().http2) return(false);
+    if (!ssl) return(true);
+    return("h2".equals(engine.getApplicationProtocol()));
+  }
+
+
+  HTTP2Session http2()
+  {
+    return(http2);
+  }
+
+
+  void http2(HTTP2Session session)
+  {
+    this.http2 = session;
+  }
+
+
+  SSLSession session()
+  {
+    if (engine == null) return(null);
+    return(engine.getSession());
+  }
+
+
+  /**
+   *
+   * Requests on a connection are handled one at a time, in the order received.
+   * Returns true if the request can be handled now, otherwise it waits for next().
+   *
+   */
+  synchronized boolean queue(HTTPRequest request) throws Exception
+  {
+    if (!busy)
+    {
+      busy = true;
+      return(true);
+    }
+
+    if (pipeline.size() >= PIPELINE)
+      throw new Exception("More than "+PIPELINE+" pipelined requests on connection");
+
+    pipeline.add(request);
+    return(false);
+  }
+
+
+  /**
+   *
+   * Called when a response has been written. Returns the next pipelined request, if any.
+   *
+   */
+  synchronized HTTPRequest next()
+  {
+    if (congested())
+    {
+      held = true;
+      return(null);
+    }
+
+    HTTPRequest request = pipeline.poll();
+    if (request == null) busy = false;
+    return(request);
+  }
+
+
+  /**
+   *
+   * Called when queued data has been written. Returns the pipelined request
+   * held back by next(), if the client has caught up.
+   *
+   */
+  synchronized HTTPRequest resume()
+  {
+    if (!held || congested())
+      return(null);
+
+    held = false;
+    return(next());
+  }
+
+
+  /**
+   *
+   * Slow readers with more than maxpending bytes queued are not read from,
+   * and their pipelined requests are held back, until the queue is drained.
+   *
+   */
+  boolean congested()
+  {
+    synchronized(outbound)
+    {return(pending >= maxpending);}
+  }
+
+
   public boolean connected()
   {
     return(connected);
@@ -226,6 +395,7 @@ public class HTTPChannel
 
   public boolean stayalive()
   {
+    if (http2 != null && http2.active() > 0) return(true);
     return(stayalive);
   }
 
@@ -298,6 +468,17 @@ public class HTTPChannel
   }
 
 
+  /**
+   *
+   * Buffers returned by read() are pooled, and must be handed back when consumed
+   *
+   */
+  public void release(ByteBuffer buf)
+  {
+    buffers.release(buf);
+  }
+
+
   private ByteBuffer readplain() throws Exception
   {
     try
@@ -308,19 +489,16 @@ public class HTTPChannel
 
       if (read <= 0)
       {
-        buffers.done();
+        buffers.free();
         return(null);
       }
 
-      if (buffers.data == null)
-        return(buffers.done());
-
       buffers.data.flip();
       return(buffers.done());
     }
     catch (Exception e)
     {
-      buffers.done();
+      buffers.free();
       String msg = e.getMessage();
       if (msg == null) msg = "unknown";
       if (!msg.equals("Connection reset")) throw e;
@@ -341,7 +519,7 @@ public class HTTPChannel
 
       if (read <= 0)
       {
-        buffers.done();
+        buffers.free();
         return(null);
       }
 
@@ -356,16 +534,16 @@ public class HTTPChannel
             break;
 
           case BUFFER_OVERFLOW:
-            buffers.data = enlarge(buffers.data,appsize());
+            buffers.data = enlarge(buffers,buffers.data,appsize());
             break;
 
           case BUFFER_UNDERFLOW:
             if (buffers.sslb.limit() < packsize())
-              buffers.sslb = enlarge(buffers.sslb,packsize());
+              buffers.sslb = enlarge(buffers,buffers.sslb,packsize());
             break;
 
           case CLOSED:
-            buffers.done();
+            buffers.free();
             return(null);
         }
       }
@@ -373,7 +551,7 @@ public class HTTPChannel
     catch (Exception e)
     {
       handle(e);
-      buffers.done();
+      buffers.free();
       return(null);
     }
 
@@ -382,108 +560,444 @@ public class HTTPChannel
   }
 
 
-  public void write(ByteBuffer buf) throws Exception
+  public void write(byte[] data) throws Exception
   {
-    int read = buf.remaining();
-    byte[] data = new byte[read]; buf.get(data);
-    write(data);
+    write(ByteBuffer.wrap(data));
   }
 
 
-  public void write(byte[] data) throws Exception
+  /**
+   *
+   * Responses are queued and written by flush() without blocking. The waiter
+   * finishes the write when the socket becomes writable. Channels not listed
+   * with a waiter, i.e. handed over to the RESTServer, are written directly.
+   * The buffers are written as is, i.e. header and body without joining them.
+   *
+   */
+  public void write(ByteBuffer... data) throws Exception
   {
-    int wrote = 0;
-    buffers.alloc();
-    Socket socket = channel.socket();
-    int max = buffers.data.capacity();
+    SelectionKey key = this.key;
 
-    int size = data.length;
-    int bsize = buffers.data.capacity();
+    if (key == null || !key.isValid())
+    {
+      if (ssl) writessl(data);
+      else     writeplain(data);
+      return;
+    }
 
-    while(wrote < size)
+    synchronized(outbound)
     {
-      int chunk = bsize;
+      if (ssl) queue(data);
+      else     slice(data);
+    }
+
+    flush();
+  }
 
-      if (chunk > size - wrote)
-        chunk = size - wrote;
 
-      if (chunk > max)
-        chunk = max;
+  /**
+   *
+   * A response with the body in a file. On the plain port the file is sent with
+   * transferTo, i.e. sendfile, from the page cache to the socket. A TRANSFER marker
+   * keeps its place in the queue. SSL needs the bytes to wrap them, they are
+   * wrapped from the file mapped into memory, one packet at a time.
+   *
+   */
+  void transfer(HTTPResponse response) throws Exception
+  {
+    SelectionKey key = this.key;
 
-      buffers.data.put(data,wrote,chunk);
-      buffers.data.flip();
+    if (ssl || key == null || !key.isValid())
+    {
+      write(response.buffers());
+      return;
+    }
+
+    ByteBuffer head = response.head(true);
+    Transfer transfer = new Transfer(response.file(),response.offset(),response.length());
+
+    synchronized(outbound)
+    {
+      slice(new ByteBuffer[] {head});
+
+      outbound.add(TRANSFER);
+      transfers.add(transfer);
+      pending += response.length();
+    }
+
+    flush();
+  }
+
+
+  /**
+   *
+   * Blocks a worker streaming a response while more than maxpending bytes are
+   * queued, i.e. until the client has caught up. Gives up if the client stops
+   * reading for longer than the keep-alive timeout.
+   *
+   */
+  void await() throws Exception
+  {
+    int timeout = config.getHTTP().timeout;
+
+    synchronized(outbound)
+    {
+      while(pending >= maxpending && !closing)
+      {
+        long idle = System.currentTimeMillis() - touched;
+
+        if (idle >= timeout)
+          throw new IOException("Client stopped reading");
 
-      if (ssl) writessl();
-      else     writeplain();
+        outbound.wait(timeout-idle);
+      }
+
+      if (closing || !channel.isOpen())
+        throw new ClosedChannelException();
+    }
+  }
 
-      if (!socket.isClosed())
+
+  /**
+   *
+   * The socket copies the whole remainder of a heap buffer on each write.
+   * Queuing the data in network sized slices keeps that copy small.
+   *
+   */
+  private void slice(ByteBuffer[] data)
+  {
+    int size = wbuffers.size();
+
+    for(ByteBuffer buf : data)
+    {
+      while(buf.remaining() > size)
       {
-        try {socket.getOutputStream().flush();}
-        catch (Exception e) {;}
+        ByteBuffer slice = buf.slice();
+        slice.limit(size);
+
+        queue(slice);
+        buf.position(buf.position()+size);
       }
 
-      wrote += chunk;
-      buffers.alloc(true);
+      if (buf.hasRemaining())
+        queue(buf);
     }
+  }
 
-    buffers.done();
+
+  private void queue(ByteBuffer[] data)
+  {
+    for(ByteBuffer buf : data)
+      queue(buf);
   }
 
 
-  private void writeplain() throws Exception
+  private void queue(ByteBuffer buf)
   {
-    try
+    pending += buf.remaining();
+    outbound.add(buf);
+  }
+
+
+  /**
+   *
+   * Writes as much queued data as the socket accepts, and sets the interest
+   * of the selection key accordingly. Returns true when the queue is empty.
+   *
+   */
+  boolean flush()
+  {
+    boolean empty = false;
+
+    synchronized(outbound)
     {
-      int remain = buffers.data.remaining();
-      while(remain > 0) remain -= channel.write(buffers.data);
+      try
+      {
+        if (ssl) flushssl();
+        else     flushplain();
+      }
+      catch (Exception e)
+      {
+        if (e instanceof ClosedChannelException) logger.warning("Client closed connection");
+        else logger.log(Level.WARNING,e.getMessage(),e);
+
+        pending = 0;
+        closing = true;
+        outbound.clear();
+        release();
+
+        wbuffers.release(packet);
+        packet = null;
+      }
+
+      empty = drained();
+
+      if (!(empty && closing))
+        interest(empty);
+
+      // Wake workers streaming a response
+      outbound.notifyAll();
     }
-    catch (Exception e)
+
+    if (empty && closing)
     {
-      if (e instanceof ClosedChannelException)
+      try {channel.close();}
+      catch (Exception e) {;}
+    }
+
+    return(empty);
+  }
+
+
+  private void flushplain() throws Exception
+  {
+    while(!outbound.isEmpty())
+    {
+      if (outbound.peek() == TRANSFER)
       {
-        logger.warning("Client closed connection");
-        return;
+        if (!transfer()) break;
+        continue;
       }
 
-      throw e;
+      ByteBuffer[] bufs = gather();
+      long wrote = channel.write(bufs);
+
+      if (wrote > 0)
+      {
+        pending -= wrote;
+        touched = System.currentTimeMillis();
+      }
+
+      while(!outbound.isEmpty() && outbound.peek() != TRANSFER && !outbound.peek().hasRemaining())
+        outbound.poll();
+
+      if (bufs[bufs.length-1].hasRemaining()) break;
     }
   }
 
 
-  private void writessl() throws Exception
+  /**
+   *
+   * Sends as much of the file as the socket accepts. Returns true when all of it is sent.
+   *
+   */
+  private boolean transfer() throws Exception
   {
-    int remain = buffers.data.remaining();
+    Transfer transfer = transfers.peek();
+    long wrote = transfer.file.transferTo(transfer.pos,transfer.end-transfer.pos,channel);
 
-    while(remain > 0)
+    if (wrote > 0)
     {
-      buffers.sslb.clear();
-      SSLEngineResult result = engine.wrap(buffers.data,buffers.sslb);
+      pending -= wrote;
+      transfer.pos += wrote;
+      touched = System.currentTimeMillis();
+    }
 
-      switch(result.getStatus())
+    if (transfer.pos < transfer.end)
+      return(false);
+
+    transfer.file.close();
+
+    transfers.poll();
+    outbound.poll();
+
+    return(true);
+  }
+
+
+  private void release()
+  {
+    for(Transfer transfer : transfers)
+    {
+      try {transfer.file.close();}
+      catch (Exception e) {;}
+    }
+
+    transfers.clear();
+  }
+
+
+  /**
+   *
+   * Wraps one packet at a time, straight from the queued buffers,
+   * when the previous packet has been written.
+   *
+   */
+  private void flushssl() throws Exception
+  {
+    while(true)
+    {
+      if (packet != null && packet.hasRemaining())
       {
-        case OK:
-          buffers.sslb.flip();
+        if (channel.write(packet) > 0)
+          touched = System.currentTimeMillis();
 
-          while(buffers.sslb.hasRemaining())
-            remain -= channel.write(buffers.sslb);
+        if (packet.hasRemaining()) return;
+      }
+
+      while(!outbound.isEmpty() && !outbound.peek().hasRemaining())
+        outbound.poll();
+
+      if (outbound.isEmpty())
+      {
+        wbuffers.release(packet);
+        packet = null;
+        return;
+      }
+
+      if (packet == null) packet = wbuffers.packet();
+
+      packet.clear();
+      SSLEngineResult result = engine.wrap(gather(),packet);
 
+      pending -= result.bytesConsumed();
+
+      switch(result.getStatus())
+      {
+        case OK:
+          packet.flip();
           break;
 
         case BUFFER_OVERFLOW:
-          buffers.sslb = enlarge(buffers.sslb,packsize());
+          packet = enlarge(wbuffers,packet,packsize());
+          packet.flip();
           break;
 
         case BUFFER_UNDERFLOW:
-          buffers.done();
           throw new IllegalStateException("Unexpected behaivior");
 
         case CLOSED:
+          pending = 0;
+          outbound.clear();
+          packet.flip();
           break;
       }
     }
   }
 
 
+  private boolean drained()
+  {
+    return(outbound.isEmpty() && packet == null);
+  }
+
+
+  // The first queued buffers, written in one gathering write
+  private ByteBuffer[] gather()
+  {
+    int n = 0;
+
+    for(ByteBuffer buf : outbound)
+    {
+      if (n == GATHER || buf == TRANSFER) break;
+      n++;
+    }
+
+    int i = 0;
+    ByteBuffer[] bufs = new ByteBuffer[n];
+
+    for(ByteBuffer buf : outbound)
+    {
+      if (i == n) break;
+      bufs[i++] = buf;
+    }
+
+    return(bufs);
+  }
+
+
+  private void interest(boolean empty)
+  {
+    SelectionKey key = this.key;
+    if (key == null || !key.isValid()) return;
+
+    int ops = 0;
+    if (!empty) ops |= SelectionKey.OP_WRITE;
+    if (pending < maxpending) ops |= SelectionKey.OP_READ;
+
+    try
+    {
+      if (key.interestOps() != ops)
+      {
+        key.interestOps(ops);
+        key.selector().wakeup();
+      }
+    }
+    catch (CancelledKeyException e) {;}
+  }
+
+
+  private static long remaining(ByteBuffer[] data)
+  {
+    long remaining = 0;
+
+    for(ByteBuffer buf : data)
+      remaining += buf.remaining();
+
+    return(remaining);
+  }
+
+
+  // Blocking write, for channels not served by a waiter
+  private void writeplain(ByteBuffer[] data) throws Exception
+  {
+    try
+    {
+      while(remaining(data) > 0) channel.write(data);
+    }
+    catch (Exception e)
+    {
+      if (e instanceof ClosedChannelException)
+      {
+        logger.warning("Client closed connection");
+        return;
+      }
+
+      throw e;
+    }
+  }
+
+
+  private void writessl(ByteBuffer[] data) throws Exception
+  {
+    wbuffers.alloc();
+
+    try
+    {
+      while(remaining(data) > 0)
+      {
+        wbuffers.sslb.clear();
+        SSLEngineResult result = engine.wrap(data,wbuffers.sslb);
+
+        switch(result.getStatus())
+        {
+          case OK:
+            wbuffers.sslb.flip();
+
+            while(wbuffers.sslb.hasRemaining())
+              channel.write(wbuffers.sslb);
+
+            break;
+
+          case BUFFER_OVERFLOW:
+            wbuffers.sslb = enlarge(wbuffers,wbuffers.sslb,packsize());
+            break;
+
+          case BUFFER_UNDERFLOW:
+            throw new IllegalStateException("Unexpected behaivior");
+
+          case CLOSED:
+            return;
+        }
+      }
+    }
+    finally
+    {
+      wbuffers.free();
+    }
+  }
+
+
   boolean accept() throws Exception
   {
     if (ssl) return(sslaccept());
@@ -525,7 +1039,7 @@ public class HTTPChannel
             {
               if (engine.isInboundDone() && engine.isOutboundDone())
               {
-                this.buffers.done();
+                this.buffers.free();
                 this.connected = true;
                 return(this.connected);
               }
@@ -547,7 +1061,7 @@ public class HTTPChannel
             catch (Exception e)
             {
               handle(e);
-              this.buffers.done();
+              this.buffers.free();
               engine.closeOutbound();
               this.connected = false;
               return(this.connected);
@@ -559,12 +1073,12 @@ public class HTTPChannel
                 break;
 
               case BUFFER_OVERFLOW:
-                buffers.data = enlarge(buffers.data,appsize());
+                buffers.data = enlarge(buffers,buffers.data,appsize());
                 break;
 
               case BUFFER_UNDERFLOW:
                 if (buffers.recv.limit() < packsize())
-                  buffers.recv = enlarge(buffers.recv,packsize());
+                  buffers.recv = enlarge(buffers,buffers.recv,packsize());
                 break;
 
               case CLOSED:
@@ -587,7 +1101,7 @@ public class HTTPChannel
             catch (Exception e)
             {
               handle(e);
-              this.buffers.done();
+              this.buffers.free();
               engine.closeOutbound();
               this.connected = false;
               return(this.connected);
@@ -603,7 +1117,7 @@ public class HTTPChannel
                 break;
 
               case BUFFER_OVERFLOW:
-                buffers.send = enlarge(buffers.send,packsize());
+                buffers.send = enlarge(buffers,buffers.send,packsize());
                 break;
 
               case BUFFER_UNDERFLOW:
@@ -661,7 +1175,7 @@ public class HTTPChannel
       logger.log(Level.SEVERE,e.getMessage(),e);
     }
 
-    this.buffers.done();
+    this.buffers.free();
 
     if (result == null)
     {
@@ -684,7 +1198,7 @@ public class HTTPChannel
   }
 
 
-  private ByteBuffer enlarge(ByteBuffer buf, int size) throws Exception
+  private ByteBuffer enlarge(HTTPBuffers buffers, ByteBuffer buf, int size) throws Exception
   {
     ByteBuffer bufc = buf;
     int left = buf.remaining();
@@ -694,6 +1208,7 @@ public class HTTPChannel
       buf = ByteBuffer.allocateDirect(buf.position() + size);
       bufc.flip();
       buf.put(bufc);
+      buffers.release(bufc);
     }
 
     return(buf);
@@ -710,4 +1225,19 @@ public class HTTPChannel
   {
     return(engine.getSession().getApplicationBufferSize());
   }
+
+
+  private static class Transfer
+  {
+    private long pos;
+    private final long end;
+    private final FileChannel file;
+
+    Transfer(FileChannel file, long offset, long length)
+    {
+      this.file = file;
+      this.pos = offset;
+      this.end = offset + length;
+    }
+  }
 }
\ No newline at end of file
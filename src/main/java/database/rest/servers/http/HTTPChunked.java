@@ -0,0 +1,190 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ *
+ * A response body of unknown length, sent with Transfer-Encoding: chunked.
+ * The header goes out with the first chunk. The writing thread waits while
+ * the client is behind, so that no more than maxpending bytes are queued.
+ *
+ */
+public class HTTPChunked extends OutputStream
+{
+  private int pos = 0;
+  private boolean done = false;
+  private boolean started = false;
+
+  private final byte[] chunk;
+  private final HTTPChannel channel;
+  private final HTTPResponse response;
+
+  private final static byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+  private final static byte[] LAST = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+
+  /**
+   *
+   * Chunked encoding is HTTP/1.1. HTTP/2 streams frame the body themselves,
+   * and channels handed over to a RESTServer are not written by a waiter.
+   *
+   */
+  public static boolean supported(HTTPRequest request)
+  {
+    if (request.h2stream() != null)
+      return(false);
+
+    if (!"1.1".equals(request.version()))
+      return(false);
+
+    SelectionKey key = request.channel().key();
+    return(key != null && key.isValid());
+  }
+
+
+  public HTTPChunked(HTTPRequest request, HTTPResponse response, int size)
+  {
+    this.response = response;
+    this.chunk = new byte[size];
+    this.channel = request.channel();
+
+    response.setChunked();
+  }
+
+
+  public boolean started()
+  {
+    return(started);
+  }
+
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (pos == chunk.length) send(false);
+    chunk[pos++] = (byte) b;
+  }
+
+
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException
+  {
+    while(len > 0)
+    {
+      if (pos == chunk.length) send(false);
+
+      int bytes = Math.min(len,chunk.length-pos);
+      System.arraycopy(data,off,chunk,pos,bytes);
+
+      pos += bytes;
+      off += bytes;
+      len -= bytes;
+    }
+  }
+
+
+  @Override
+  public void flush() throws IOException
+  {
+    if (pos > 0) send(false);
+  }
+
+
+  /**
+   *
+   * Sends what is left, and the last, empty, chunk.
+   *
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (done) return;
+    send(true);
+    done = true;
+  }
+
+
+  /**
+   *
+   * The response cannot be completed. Closing the connection, without the
+   * last chunk, is the only way to tell the client that it is incomplete.
+   *
+   */
+  public void abort()
+  {
+    done = true;
+    channel.failed();
+  }
+
+
+  private void send(boolean last) throws IOException
+  {
+    if (done)
+      throw new IOException("Response has been closed");
+
+    ArrayList<ByteBuffer> data = new ArrayList<ByteBuffer>(3);
+
+    if (!started)
+    {
+      started = true;
+      data.add(response.head(true));
+    }
+
+    if (pos > 0)
+    {
+      byte[] size = (Integer.toHexString(pos)+"\r\n").getBytes(StandardCharsets.US_ASCII);
+      byte[] bytes = new byte[size.length+pos+CRLF.length];
+
+      System.arraycopy(size,0,bytes,0,size.length);
+      System.arraycopy(chunk,0,bytes,size.length,pos);
+      System.arraycopy(CRLF,0,bytes,size.length+pos,CRLF.length);
+
+      data.add(ByteBuffer.wrap(bytes));
+      pos = 0;
+    }
+
+    if (last)
+      data.add(ByteBuffer.wrap(LAST));
+
+    try
+    {
+      channel.write(data.toArray(new ByteBuffer[0]));
+      channel.await();
+    }
+    catch (IOException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      throw new IOException(e);
+    }
+  }
+}
\ No newline at end of file
@@ -21,6 +21,7 @@
 
 package database.rest.servers.http;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 
 
@@ -29,14 +30,21 @@ public class HTTPCodes
   public static final ConcurrentHashMap<Integer,String> codes =
     new ConcurrentHashMap<Integer,String>();
 
+  private static final ConcurrentHashMap<Integer,byte[]> lines =
+    new ConcurrentHashMap<Integer,byte[]>();
+
 
   static
   {
     codes.put(200,"OK");
     codes.put(404,"Not Found");
     codes.put(204,"No Content");
+    codes.put(206,"Partial Content");
     codes.put(400,"Bad Request");
     codes.put(304,"Not Modified");
+    codes.put(403,"Forbidden");
+    codes.put(416,"Range Not Satisfiable");
+    codes.put(500,"Internal Server Error");
     codes.put(301,"Moved Permanently");
     codes.put(503,"Service Unavailable");
   }
@@ -47,4 +55,21 @@ public class HTTPCodes
     String reason = codes.get(code);
     return("HTTP/1.1 " + code + " " +reason);
   }
+
+
+  /**
+   *
+   * The status line as bytes, encoded once per code.
+   *
+   */
+  public static byte[] line(int code)
+  {
+    byte[] line = lines.get(code);
+    if (line != null) return(line);
+
+    line = (get(code)+"\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    lines.put(code,line);
+
+    return(line);
+  }
 }
\ No newline at end of file
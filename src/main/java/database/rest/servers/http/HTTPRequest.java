@@ -24,10 +24,22 @@ package database.rest.servers.http;
 import java.util.HashMap;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.Collections;
+import java.io.SequenceInputStream;
 import database.rest.servers.Server;
+import java.io.ByteArrayInputStream;
 import java.nio.channels.SelectionKey;
 
 
+/**
+ *
+ * Incremental request parser. Bytes are consumed as they arrive, the request line and
+ * headers are parsed in one pass over the header bytes, and the body is collected in
+ * segments sized from Content-Length, so nothing already received is copied again.
+ * Parsing stops at the end of the request, so pipelined requests can follow in the same buffer.
+ *
+ */
 public class HTTPRequest
 {
   private long time = 0;
@@ -44,11 +56,22 @@ public class HTTPRequest
 
   private final Server server;
   private final SelectionKey key;
+  private final HTTP2Stream stream;
   private final HTTPWaiter waiter;
   private final HTTPChannel channel;
 
+  private int hlen = 0;
+  private int line = 0;
+  private int lend = 0;
+  private int state = LINE;
+  private byte[] head = new byte[HEAD];
+
+  private int fill = 0;
+  private int received = 0;
   private byte[] body = null;
-  private byte[] request = new byte[0];
+
+  private final ArrayList<byte[]> segments =
+    new ArrayList<byte[]>();
 
   private HashMap<String,String> headers =
     new HashMap<String,String>();
@@ -59,15 +82,38 @@ public class HTTPRequest
   private final ArrayList<Pair<String,String>> query =
     new ArrayList<Pair<String,String>>();
 
-  private final static String EOL = "\r\n";
   private long touched = System.currentTimeMillis();
 
+  private static final int LINE = 0;
+  private static final int HEADERS = 1;
+  private static final int BODY = 2;
+  private static final int DONE = 3;
+
+  private static final int HEAD = 1024;
+  private static final int MAXHEAD = 65536;
+  private static final int SEGMENT = 1024*1024;
+
+  private static int MAXBODY = Integer.MAX_VALUE;
+
+
+  public static void setMaxBody(int max)
+  {
+    MAXBODY = max;
+  }
+
+
+  static int getMaxBody()
+  {
+    return(MAXBODY);
+  }
+
 
   public HTTPRequest(Server server, String host, byte[] data) throws Exception
   {
     this.key = null;
     this.host = host;
     this.remote = host;
+    this.stream = null;
     this.waiter = null;
     this.channel = null;
     this.server = server;
@@ -80,8 +126,26 @@ public class HTTPRequest
   public HTTPRequest(HTTPWaiter waiter, HTTPChannel channel, SelectionKey key)
   {
     this.key = key;
+    this.stream = null;
+    this.waiter = waiter;
+    this.channel = channel;
+    this.host =  channel.remote();
+    this.server = channel.server();
+    this.redirect = channel.redirect();
+  }
+
+
+  /**
+   *
+   * A request on an HTTP/2 stream. Responses go to the stream, not the channel.
+   *
+   */
+  HTTPRequest(HTTPWaiter waiter, HTTPChannel channel, HTTP2Stream stream)
+  {
+    this.stream = stream;
     this.waiter = waiter;
     this.channel = channel;
+    this.key = channel.key();
     this.host =  channel.remote();
     this.server = channel.server();
     this.redirect = channel.redirect();
@@ -120,12 +184,25 @@ public class HTTPRequest
 
   public String header()
   {
-    return(new String(request,0,header));
+    return(new String(head,0,header));
   }
 
   public byte[] page()
   {
-    return(request);
+    int hsize = hlen;
+    byte[] page = new byte[hsize+received];
+    System.arraycopy(head,0,page,0,hsize);
+
+    int pos = hsize;
+
+    for(byte[] segment : segments)
+    {
+      int len = Math.min(segment.length,page.length-pos);
+      System.arraycopy(segment,0,page,pos,len);
+      pos += len;
+    }
+
+    return(page);
   }
 
   public byte[] nvlbody()
@@ -138,17 +215,58 @@ public class HTTPRequest
   public byte[] body()
   {
     if (body != null) return(body);
-    int blen = request.length - this.header - 4;
+    if (received == 0) return(null);
 
-    if (blen > 0)
+    if (segments.size() == 1 && fill == received)
     {
-      this.body = new byte[blen];
-      System.arraycopy(request,this.header+4,this.body,0,blen);
+      this.body = segments.get(0);
+      return(body);
     }
 
+    int pos = 0;
+    this.body = new byte[received];
+
+    for(byte[] segment : segments)
+    {
+      int len = Math.min(segment.length,received-pos);
+      System.arraycopy(segment,0,body,pos,len);
+      pos += len;
+    }
+
+    segments.clear();
+    segments.add(body);
+    this.fill = received;
+
     return(body);
   }
 
+  /**
+   *
+   * The body as a stream over the received segments, without joining them.
+   *
+   */
+  public InputStream stream()
+  {
+    if (body != null)
+      return(new ByteArrayInputStream(body));
+
+    ArrayList<InputStream> parts = new ArrayList<InputStream>();
+
+    for (int i = 0; i < segments.size(); i++)
+    {
+      byte[] segment = segments.get(i);
+      int len = i < segments.size() - 1 ? segment.length : fill;
+      parts.add(new ByteArrayInputStream(segment,0,len));
+    }
+
+    return(new SequenceInputStream(Collections.enumeration(parts)));
+  }
+
+  public int length()
+  {
+    return(clength);
+  }
+
   public void setBody(String scrambled)
   {
     this.body = scrambled.getBytes();
@@ -181,7 +299,30 @@ public class HTTPRequest
 
   public void respond(byte[] data) throws Exception
   {
-    channel.write(data);
+    if (stream != null) stream.respond(ByteBuffer.wrap(data));
+    else                channel.write(data);
+  }
+
+  public void respond(HTTPResponse response) throws Exception
+  {
+    if (stream != null)               stream.respond(response.buffers());
+    else if (response.file() != null) channel.transfer(response);
+    else                              channel.write(response.buffers());
+  }
+
+  HTTP2Stream h2stream()
+  {
+    return(stream);
+  }
+
+  /**
+   *
+   * The start of the HTTP/2 client preface, i.e. PRI * HTTP/2.0
+   *
+   */
+  boolean preface()
+  {
+    return("PRI".equals(method) && "*".equals(path) && "2.0".equals(version));
   }
 
   public SelectionKey key()
@@ -196,12 +337,17 @@ public class HTTPRequest
 
   boolean done()
   {
-    return(clength >= 0);
+    return(state == DONE);
   }
 
   boolean cancelled()
   {
-    return(System.currentTimeMillis() - touched > 30000);
+    return(System.currentTimeMillis() > expires());
+  }
+
+  long expires()
+  {
+    return(touched + 30000);
   }
 
 
@@ -214,21 +360,7 @@ public class HTTPRequest
   void parse()
   {
     if (parsed) return;
-
     parsed = true;
-    String header = new String(request,0,this.header);
-
-    String[] lines = header.split(EOL);
-    for (int i = 1; i < lines.length; i++)
-    {
-      int pos = lines[i].indexOf(':');
-      if (pos <= 0) continue;
-
-      String key = lines[i].substring(0,pos).trim();
-      String val = lines[i].substring(pos+1).trim();
-
-      this.headers.put(key,val);
-    }
 
     int pos = this.path.indexOf('?');
 
@@ -236,10 +368,17 @@ public class HTTPRequest
     {
       String query = this.path.substring(pos+1);
       this.path = this.path.substring(0,pos);
-      String[] parts = query.split("&");
 
-      for(String part : parts)
+      int b = 0;
+
+      while (b < query.length())
       {
+        int e = query.indexOf('&',b);
+        if (e < 0) e = query.length();
+
+        String part = query.substring(b,e);
+        b = e + 1;
+
         pos = part.indexOf('=');
         if (pos < 0) this.query.add(new Pair<String,String>(part,null));
         else this.query.add(new Pair<String,String>(part.substring(0,pos),part.substring(pos+1)));
@@ -250,13 +389,24 @@ public class HTTPRequest
 
     if (hcookie != null)
     {
-      String[] cookies = hcookie.split(";");
-      for (int i = 0; i < cookies.length; i++)
+      int b = 0;
+
+      while (b < hcookie.length())
       {
-        String[] nvp = cookies[i].split("=");
+        int e = hcookie.indexOf(';',b);
+        if (e < 0) e = hcookie.length();
+
+        String nvp = hcookie.substring(b,e);
+        b = e + 1;
+
+        pos = nvp.indexOf('=');
+
+        String name = pos < 0 ? nvp.trim() : nvp.substring(0,pos).trim();
+        String value = pos < 0 ? "" : nvp.substring(pos+1).trim();
+
+        int next = value.indexOf('=');
+        if (next >= 0) value = value.substring(0,next).trim();
 
-        String name = nvp[0].trim();
-        String value = nvp.length > 1 ? nvp[1].trim() : "";
         this.cookies.put(name,value);
       }
     }
@@ -266,145 +416,206 @@ public class HTTPRequest
   }
 
 
-  public boolean add(ByteBuffer buf) throws Exception
+  public boolean add(byte[] data) throws Exception
   {
-    int read = buf.remaining();
-    byte[] data = new byte[read]; buf.get(data);
     return(add(data,0,data.length));
   }
 
 
-  public boolean add(byte[] data) throws Exception
+  public boolean add(byte[] data, int pos, int len) throws Exception
   {
-    return(add(data,0,data.length));
+    return(add(ByteBuffer.wrap(data,pos,len)));
   }
 
 
-  public boolean add(byte[] data, int pos, int len) throws Exception
+  /**
+   *
+   * Consumes bytes up to the end of this request. Anything after that,
+   * i.e. pipelined requests, is left in the buffer.
+   *
+   */
+  public boolean add(ByteBuffer buf) throws Exception
   {
     time = System.nanoTime();
-    int last = request.length;
-    byte[] request = new byte[this.request.length+len];
 
-    System.arraycopy(data,pos,request,last,len);
-    System.arraycopy(this.request,0,request,0,this.request.length);
+    while (state < BODY && buf.hasRemaining())
+    {
+      int pos = buf.position();
+      int eol = pos;
 
-    this.request = request;
+      while (eol < buf.limit() && buf.get(eol) != '\n') eol++;
+      if (eol < buf.limit()) eol++;
 
-    if (request.length < 8)
-      return(false);
+      int len = eol - pos;
 
-    if (method == null)
-      method = getMethod();
+      if (hlen + len > head.length)
+      {
+        if (hlen + len > MAXHEAD)
+          throw new Exception("Request header exceeds "+MAXHEAD+" bytes");
 
-    if (method == null)
-      return(false);
+        int size = head.length;
+        while (size < hlen + len) size *= 2;
 
-    if (header < 0)
-    {
-      if (method.equals("GET")) this.bckward(last);
-      else                      this.forward(last);
+        byte[] head = new byte[size];
+        System.arraycopy(this.head,0,head,0,hlen);
+        this.head = head;
+      }
+
+      buf.get(head,hlen,len);
+      hlen += len;
+
+      if (head[hlen-1] == '\n')
+        line();
     }
 
-    if (header < 0)
-      return(false);
+    if (state == BODY)
+      append(buf);
 
-    if (clength < 0)
-    {
-      path = getPath();
-      version = getVersion();
+    return(state == DONE);
+  }
 
-      if (method.equals("GET"))
-      {
-        clength = 0;
-      }
-      else
-      {
-        parse();
-        String cl = headers.get("Content-Length");
 
-        if (cl == null) clength = 0;
-        else clength = Integer.parseInt(cl);
-      }
-    }
+  /**
+   *
+   * Parses the line just completed. Each header byte is looked at once.
+   *
+   */
+  private void line() throws Exception
+  {
+    int end = hlen - 1;
+    if (end > line && head[end-1] == '\r') end--;
 
-    if (request.length > header + clength + 4)
-      throw new Exception("Received multiple requests without client waiting for response");
+    if (state == LINE) requestline(line,end);
+    else if (end > line) headerline(line,end);
+    else endofheader();
 
-    return(request.length == header + clength + 4);
+    if (end > line) lend = end;
+    line = hlen;
   }
 
 
-  private String getPath()
+  private void requestline(int b, int e) throws Exception
   {
-    if (method == null)
-      return(null);
+    // Ignore empty lines before the request line
+    if (e == b) return;
 
-    int b = method.length()+1;
+    int m = -1;
+    int v = -1;
 
-    for (int i = b; i < request.length; i++)
+    for (int i = b; i < e; i++)
     {
-      if (request[i] == ' ')
-      {
-        String path = new String(request,b,i-b);
+      if (head[i] != ' ') continue;
+      if (m < 0) m = i;
+      v = i;
+    }
+
+    if (m < 0 || v == m)
+      throw new Exception("Malformed request line '"+new String(head,b,e-b)+"'");
+
+    method = new String(head,b,m-b);
 
-        if (path.length() > 1 && path.endsWith("/"))
-          path = path.substring(0,path.length()-1);
+    path = new String(head,m+1,v-m-1);
+    if (path.length() > 1 && path.endsWith("/")) path = path.substring(0,path.length()-1);
+    if (path.length() == 0) path = "/";
 
-        if (path.length() == 0)
-          path = "/";
+    // Skip HTTP/ (5 bytes)
+    if (e - v - 1 > 5) version = new String(head,v+6,e-v-6);
+
+    state = HEADERS;
+  }
 
-        return(path);
+
+  private void headerline(int b, int e) throws Exception
+  {
+    int pos = -1;
+
+    for (int i = b; i < e; i++)
+    {
+      if (head[i] == ':')
+      {
+        pos = i;
+        break;
       }
     }
 
-    return(null);
+    if (pos <= b) return;
+
+    int ke = pos;
+    int vb = pos + 1;
+
+    while (ke > b && head[ke-1] <= ' ') ke--;
+    while (b < ke && head[b] <= ' ') b++;
+
+    while (vb < e && head[vb] <= ' ') vb++;
+    while (e > vb && head[e-1] <= ' ') e--;
+
+    String name = new String(head,b,ke-b);
+    String value = new String(head,vb,e-vb);
+
+    if (name.equalsIgnoreCase("Content-Length"))
+      contentlength(value);
+
+    headers.put(name,value);
   }
 
 
-  private String getMethod()
+  private void contentlength(String value) throws Exception
   {
-    for (int i = 0; i < request.length; i++)
+    long len = 0;
+
+    if (value.length() == 0 || value.length() > 10)
+      throw new Exception("Invalid Content-Length '"+value+"'");
+
+    for (int i = 0; i < value.length(); i++)
     {
-      if (request[i] == ' ')
-        return(new String(request,0,i));
+      char c = value.charAt(i);
+
+      if (c < '0' || c > '9')
+        throw new Exception("Invalid Content-Length '"+value+"'");
+
+      len = len * 10 + (c - '0');
     }
 
-    return(null);
+    if (len > MAXBODY)
+      throw new Exception("Content-Length "+len+" exceeds max body size "+MAXBODY);
+
+    if (clength >= 0 && clength != len)
+      throw new Exception("Conflicting Content-Length headers");
+
+    clength = (int) len;
   }
 
 
-  private String getVersion()
+  private void endofheader()
   {
-    if (path == null)
-      return(null);
+    header = lend;
+    if (clength < 0) clength = 0;
+    state = clength > 0 ? BODY : DONE;
+  }
 
-    int e = 0;
-    int b = 2 + method.length() + path.length();
 
-    for (int h = b; h < request.length-1; h++)
+  private void append(ByteBuffer buf)
+  {
+    while (buf.hasRemaining() && received < clength)
     {
-      if (request[h] == '\r' && request[h+1] == '\n')
-      {
-        e = h-1;
+      byte[] segment = segments.size() == 0 ? null : segments.get(segments.size()-1);
 
-        for (int i = h-1; i > 0; i--)
-        {
-          if (request[i] == ' ')
-          {
-            b = i+1;
-            break;
-          }
-        }
+      if (segment == null || fill == segment.length)
+      {
+        segment = new byte[Math.min(clength-received,SEGMENT)];
+        segments.add(segment);
+        fill = 0;
+      }
 
-        // Skip HTTP/ (5 bytes)
+      int len = Math.min(buf.remaining(),segment.length-fill);
+      buf.get(segment,fill,len);
 
-        if (e-b-4 < b + 5) return(null);
-        return(new String(request,b+5,e-b-4));
-      }
+      fill += len;
+      received += len;
     }
 
-    return(null);
+    if (received == clength)
+      state = DONE;
   }
 
 
@@ -449,49 +660,10 @@ public class HTTPRequest
   }
 
 
-  /**
-   *
-   * Returns the length of the header (pos+1)
-   *
-   */
-  void forward(int last)
-  {
-    int start = 0;
-    if (last > 3) start = last - 3;
-
-    for (int h = start; h < request.length-3; h++)
-    {
-      if (request[h] == '\r' && request[h+1] == '\n' && request[h+2] == '\r' && request[h+3] == '\n')
-      {
-        header = h;
-        return;
-      }
-    }
-  }
-
-
-  /**
-   *
-   * Returns the length of the header (pos+1)
-   *
-   */
-  void bckward(int last)
-  {
-    for (int h = request.length-1; h >= 3 && h >= last-3; h--)
-    {
-      if (request[h-3] == '\r' && request[h-2] == '\n' && request[h-1] == '\r' && request[h] == '\n')
-      {
-        header = h - 3;
-        return;
-      }
-    }
-  }
-
-
   @Override
   public String toString()
   {
-    return(new String(request));
+    return(new String(page()));
   }
 
 
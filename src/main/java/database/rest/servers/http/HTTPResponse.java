@@ -22,42 +22,61 @@
 package database.rest.servers.http;
 
 import java.util.Date;
-import java.util.ArrayList;
-import java.text.SimpleDateFormat;
-
-
+import java.io.IOException;
+import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+
+/**
+ *
+ * The header is written straight into bytes. Constant headers are pre-encoded,
+ * the Date header is formatted once per second and shared by all responses.
+ *
+ */
 public class HTTPResponse
 {
   private byte[] body;
+  private byte[] head;
   private byte[] page;
+  private int hlen = 0;
+  private long foffset;
+  private long flength;
+  private FileChannel file;
+  private ByteBuffer[] content;
   private String header;
-  private String response;
+  private byte[] status;
   private String mimetype;
+  private boolean chunked;
   private boolean finished;
-  private static int timeout;
+  private byte[] headers = new byte[512];
 
-  // Not threadsafe => allocate per response
-  private final SimpleDateFormat format = new SimpleDateFormat("EEE, d MMM YYYY hh:mm:ss z");
+  private final static String EOL = "\r\n";
+  private final static byte[] CRLF = EOL.getBytes();
+  private final static byte[] server = line("server: OpenRestDB");
 
-  private final ArrayList<String> headers =
-    new ArrayList<String>();
+  // Threadsafe, unlike SimpleDateFormat
+  private final static DateTimeFormatter format = DateTimeFormatter.RFC_1123_DATE_TIME;
 
-  private final static String EOL = "\r\n";
-  private final static String server = "OpenRestDB";
+  private static volatile Stamp date = null;
+  private static volatile byte[] keepalive = line("Connection: Keep-Alive"+EOL+"Keep-Alive: timeout=0");
 
 
   public static void init(int timeout)
   {
-    HTTPResponse.timeout = timeout/1000;
+    keepalive = line("Connection: Keep-Alive"+EOL+"Keep-Alive: timeout="+timeout/1000);
   }
 
 
   public HTTPResponse()
   {
-    setHeader("server",server);
-    setHeader("Date",new Date());
-    setHeader("Connection","Keep-Alive");
-    setHeader("Keep-Alive","timeout="+timeout);
+    append(server);
+    append(date());
+    append(keepalive);
   }
 
 
@@ -88,15 +107,19 @@ public class HTTPResponse
       mimetype = "text/plain";
 
     setHeader("Content-Type",mimetype);
-    setHeader("Content-Length",body.length);
 
-    if (this.response == null) setResponse(200);
+    if (chunked)              setHeader("Transfer-Encoding","chunked");
+    else if (file != null)    setHeader("Content-Length",Long.toString(flength));
+    else if (content != null) setHeader("Content-Length",Long.toString(remaining(content)));
+    else                      setHeader("Content-Length",body.length);
+
+    if (this.status == null) setResponse(200);
   }
 
 
   public void setResponse(int code)
   {
-    this.response = HTTPCodes.get(code);
+    this.status = HTTPCodes.line(code);
   }
 
 
@@ -114,7 +137,7 @@ public class HTTPResponse
 
   public void setLastModified(Date date)
   {
-    setHeader("Last-Modified",format.format(date));
+    setHeader("Last-Modified",format(date.getTime()));
     setHeader("ETag",Long.toHexString(date.getTime()));
   }
 
@@ -136,19 +159,33 @@ public class HTTPResponse
 
   public void setHeader(String header, Date value)
   {
-    headers.add(header+": "+format.format(value));
+    setHeader(header,format(value.getTime()));
   }
 
 
   public void setHeader(String header, int value)
   {
-    headers.add(header+": "+value);
+    setHeader(header,Integer.toString(value));
   }
 
 
   public void setHeader(String header, String value)
   {
-    headers.add(header+": "+value);
+    if (!ascii(header) || !ascii(value))
+    {
+      append((header+": "+value+"\r\n").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+
+    int len = header.length() + 2 + value.length() + 2;
+    if (hlen + len > headers.length) grow(len);
+
+    hlen = put(header,hlen);
+    headers[hlen++] = ':';
+    headers[hlen++] = ' ';
+    hlen = put(value,hlen);
+    headers[hlen++] = '\r';
+    headers[hlen++] = '\n';
   }
 
 
@@ -167,7 +204,7 @@ public class HTTPResponse
       value = "";
 
     if (expires != null)
-      expire = "; expires="+format.format(expires);
+      expire = "; expires="+format(expires.getTime());
 
     setHeader("Set-Cookie",cookie+"="+value+expire+"; path="+path);
   }
@@ -215,6 +252,59 @@ public class HTTPResponse
   }
 
 
+  /**
+   *
+   * The body is sent from the buffer as is, i.e. cached content is not copied.
+   *
+   */
+  public void setBody(ByteBuffer content)
+  {
+    this.content = new ByteBuffer[] {content};
+  }
+
+
+  /**
+   *
+   * The body in parts, i.e. multipart/byteranges, sent without joining them.
+   *
+   */
+  public void setBody(ByteBuffer[] parts)
+  {
+    this.content = parts;
+  }
+
+
+  /**
+   *
+   * The body is sent from the file. On the plain port with transferTo, otherwise
+   * mapped into memory. The file is closed when sent.
+   *
+   */
+  public void setBody(FileChannel file, long length)
+  {
+    setBody(file,0,length);
+  }
+
+
+  public void setBody(FileChannel file, long offset, long length)
+  {
+    this.file = file;
+    this.foffset = offset;
+    this.flength = length;
+  }
+
+
+  /**
+   *
+   * The body is written later, in chunks, i.e. the length is not known.
+   *
+   */
+  public void setChunked()
+  {
+    this.chunked = true;
+  }
+
+
   public void setBody(byte[] body, int pos, int len)
   {
     this.body = new byte[len];
@@ -227,15 +317,11 @@ public class HTTPResponse
     if (header != null)
       return(header);
 
-    finish();
-
-    header = response + EOL;
-    for(String h : headers) header += h+EOL;
-
-    header += EOL;
+    header = new String(head(),StandardCharsets.ISO_8859_1);
     return(header);
   }
 
+
   public byte[] nvlbody()
   {
     byte[] body = body();
@@ -250,12 +336,201 @@ public class HTTPResponse
   }
 
 
+  /**
+   *
+   * The header and body as written to the client, without joining them.
+   *
+   */
+  public ByteBuffer[] buffers()
+  {
+    if (!finished) finish();
+
+    if (page != null)
+      return(new ByteBuffer[] {ByteBuffer.wrap(page)});
+
+    if (file != null)
+      return(new ByteBuffer[] {ByteBuffer.wrap(head()),mapped()});
+
+    if (content != null)
+    {
+      ByteBuffer[] buffers = new ByteBuffer[content.length+1];
+      buffers[0] = ByteBuffer.wrap(head());
+
+      for (int i = 0; i < content.length; i++)
+        buffers[i+1] = content[i].duplicate();
+
+      return(buffers);
+    }
+
+    return(new ByteBuffer[] {ByteBuffer.wrap(head()),ByteBuffer.wrap(body)});
+  }
+
+
+  FileChannel file()
+  {
+    return(file);
+  }
+
+
+  long offset()
+  {
+    return(foffset);
+  }
+
+
+  long length()
+  {
+    return(flength);
+  }
+
+
+  ByteBuffer head(boolean finish)
+  {
+    if (finish && !finished) finish();
+    return(ByteBuffer.wrap(head()));
+  }
+
+
+  /**
+   *
+   * The mapping stays valid when the file is closed.
+   *
+   */
+  private ByteBuffer mapped()
+  {
+    try
+    {
+      return(file.map(FileChannel.MapMode.READ_ONLY,foffset,flength));
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    finally
+    {
+      try {file.close();}
+      catch (Exception e) {;}
+
+      file = null;
+    }
+  }
+
+
+  private byte[] head()
+  {
+    if (head != null)
+      return(head);
+
+    finish();
+
+    head = new byte[status.length+hlen+CRLF.length];
+
+    System.arraycopy(status,0,head,0,status.length);
+    System.arraycopy(headers,0,head,status.length,hlen);
+    System.arraycopy(CRLF,0,head,status.length+hlen,CRLF.length);
+
+    return(head);
+  }
+
+
+  private void append(byte[] line)
+  {
+    if (hlen + line.length > headers.length) grow(line.length);
+    System.arraycopy(line,0,headers,hlen,line.length);
+    hlen += line.length;
+  }
+
+
+  /**
+   *
+   * Copies an ascii string, i.e. each char is one byte. Headers with
+   * other characters are encoded as UTF-8 by setHeader.
+   *
+   */
+  private int put(String str, int pos)
+  {
+    for (int i = 0; i < str.length(); i++)
+      headers[pos++] = (byte) str.charAt(i);
+
+    return(pos);
+  }
+
+
+  private static boolean ascii(String str)
+  {
+    for (int i = 0; i < str.length(); i++)
+      if (str.charAt(i) >= 0x80) return(false);
+
+    return(true);
+  }
+
+
+  private void grow(int len)
+  {
+    byte[] headers = new byte[Math.max(2*this.headers.length,hlen+len)];
+    System.arraycopy(this.headers,0,headers,0,hlen);
+    this.headers = headers;
+  }
+
+
+  /**
+   *
+   * The Date header changes once per second. Until then, responses share the bytes.
+   *
+   */
+  private static byte[] date()
+  {
+    Stamp date = HTTPResponse.date;
+    long second = System.currentTimeMillis() / 1000;
+
+    if (date == null || date.second != second)
+    {
+      date = new Stamp(second,line("Date: "+format(second*1000)));
+      HTTPResponse.date = date;
+    }
+
+    return(date.line);
+  }
+
+
+  private static String format(long time)
+  {
+    return(format.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time),ZoneOffset.UTC)));
+  }
+
+
+  private static byte[] line(String line)
+  {
+    return((line+EOL).getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+
   public byte[] page()
   {
     if (!finished) finish();
     if (page != null) return(page);
 
-    byte[] head = header().getBytes();
+    if (file != null)
+    {
+      ByteBuffer mapped = mapped();
+      this.body = new byte[mapped.remaining()];
+      mapped.get(this.body);
+    }
+
+    if (content != null)
+    {
+      int pos = 0;
+      this.body = new byte[(int) remaining(content)];
+
+      for(ByteBuffer part : content)
+      {
+        int len = part.remaining();
+        part.duplicate().get(this.body,pos,len);
+        pos += len;
+      }
+    }
+
+    byte[] head = head();
     this.page = new byte[head.length+this.body.length];
 
     System.arraycopy(head,0,page,0,head.length);
@@ -265,6 +540,17 @@ public class HTTPResponse
   }
 
 
+  private static long remaining(ByteBuffer[] parts)
+  {
+    long remaining = 0;
+
+    for(ByteBuffer part : parts)
+      remaining += part.remaining();
+
+    return(remaining);
+  }
+
+
   private int hlength(byte[] data)
   {
     for (int h = 0; h < data.length-3; h++)
@@ -275,4 +561,17 @@ public class HTTPResponse
 
     return(data.length);
   }
+
+
+  private static class Stamp
+  {
+    final long second;
+    final byte[] line;
+
+    Stamp(long second, byte[] line)
+    {
+      this.line = line;
+      this.second = second;
+    }
+  }
 }
\ No newline at end of file
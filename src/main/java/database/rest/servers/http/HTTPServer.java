@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.Selector;
 import database.rest.config.Config;
 import database.rest.servers.Server;
@@ -39,7 +40,6 @@ import database.rest.handlers.file.Deployment;
 public class HTTPServer extends Thread
 {
   private final int port;
-  private final int timeout;
   private final boolean ssl;
   private final Server server;
   private final Config config;
@@ -66,10 +66,11 @@ public class HTTPServer extends Thread
     this.embedded = embedded;
     this.config = server.config();
     this.selector = Selector.open();
-    this.timeout = config.getHTTP().timeout;
 
     config.getPKIContext(); // Initialize ssl
     HTTPBuffers.setSize(config.getHTTP().bufsize);
+    HTTPBufferPool.setCapacity(config.getHTTP().bufpool);
+    HTTPRequest.setMaxBody(config.getHTTP().maxbody);
 
     switch(type)
     {
@@ -81,10 +82,8 @@ public class HTTPServer extends Thread
 
     this.setDaemon(true);
     this.setName("HTTPServer("+type+")");
-    this.workers = new ThreadPool(config.getTopology().workers);
+    this.workers = new ThreadPool("accept",config.getTopology());
     this.waiters = new HTTPWaiterPool(server,embedded,config.getTopology().waiters);
-
-    HTTPReaper.start(logger,waiters,timeout);
   }
 
 
@@ -144,13 +143,40 @@ public class HTTPServer extends Thread
   }
 
 
-  private void select() throws Exception
+  private void select(Selector selector) throws Exception
   {
     while(selector.select() == 0)
       logger.warning("selector woke up empty handed");
   }
 
 
+  /**
+   *
+   * With more than one acceptor, each binds its own socket to the port
+   * with SO_REUSEPORT, and the kernel spreads new connections between them.
+   *
+   */
+  private ServerSocketChannel open(boolean reuse) throws Exception
+  {
+    ServerSocketChannel server = ServerSocketChannel.open();
+
+    if (reuse)
+      server.setOption(StandardSocketOptions.SO_REUSEPORT,true);
+
+    server.configureBlocking(false);
+    server.bind(new InetSocketAddress(port));
+
+    return(server);
+  }
+
+
+  private boolean reuseport() throws Exception
+  {
+    try (ServerSocketChannel test = ServerSocketChannel.open())
+    {return(test.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT));}
+  }
+
+
   public void run()
   {
     if (port <= 0)
@@ -164,73 +190,114 @@ public class HTTPServer extends Thread
     try
     {
       Deployment.get().deploy();
-      ServerSocketChannel server = ServerSocketChannel.open();
 
-      server.configureBlocking(false);
-      server.bind(new InetSocketAddress(port));
+      int acceptors = config.getTopology().acceptors;
+
+      if (acceptors > 1 && !reuseport())
+      {
+        logger.warning("SO_REUSEPORT is not supported, using 1 acceptor");
+        acceptors = 1;
+      }
+
+      ServerSocketChannel server = open(acceptors > 1);
       server.register(selector,SelectionKey.OP_ACCEPT);
 
+      for (int i = 1; i < acceptors; i++)
+        new Acceptor(i,open(true));
+
       state = RUNNING;
+      accept(selector,server);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+    }
+
+    state = STOPPED;
+    logger.info("HTTPServer("+type+") stopped");
+
+    try
+    {
+      if (!this.server.config().getTopology().hot)
+        System.exit(0);
+    }
+    catch (Exception e) {;}
+  }
 
-      while(true)
+
+  private void accept(Selector selector, ServerSocketChannel server)
+  {
+    while(true)
+    {
+      try
       {
-        try
-        {
-          select();
+        select(selector);
 
-          Set<SelectionKey> selected = selector.selectedKeys();
-          Iterator<SelectionKey> iterator = selected.iterator();
+        Set<SelectionKey> selected = selector.selectedKeys();
+        Iterator<SelectionKey> iterator = selected.iterator();
+
+        while(iterator.hasNext())
+        {
+          SelectionKey key = iterator.next();
+          iterator.remove();
 
-          while(iterator.hasNext())
+          if (key.isAcceptable())
           {
-            SelectionKey key = iterator.next();
-            iterator.remove();
+            SocketChannel channel = server.accept();
+            if (channel == null) continue;
 
-            if (key.isAcceptable())
+            logger.finest("Incoming request "+channel.getRemoteAddress());
+
+            channel.configureBlocking(false);
+
+            if (ssl)
             {
-              SocketChannel channel = server.accept();
-              logger.finest("Incoming request "+channel.getRemoteAddress());
-
-              channel.configureBlocking(false);
-
-              if (ssl)
-              {
-                // Don't block while handshaking
-                SSLHandshake ses = new SSLHandshake(this,key,channel,admin);
-                workers.submit(ses);
-              }
-              else
-              {
-                // Overkill to use threadpool
-                HTTPChannel client = new HTTPChannel(this.server,workers,channel,ssl,admin);
-                if (client.accept()) this.assign(client);
-              }
+              // Don't block while handshaking
+              SSLHandshake ses = new SSLHandshake(this,key,channel,admin);
+              workers.submit(ses);
             }
             else
             {
-              logger.warning("Key is not acceptable");
+              // Overkill to use threadpool
+              HTTPChannel client = new HTTPChannel(this.server,workers,channel,ssl,admin);
+              if (client.accept()) this.assign(client);
             }
           }
+          else
+          {
+            logger.warning("Key is not acceptable");
+          }
         }
-        catch (Exception e)
-        {
-          logger.log(Level.SEVERE,e.getMessage(),e);
-        }
+      }
+      catch (Exception e)
+      {
+        logger.log(Level.SEVERE,e.getMessage(),e);
       }
     }
-    catch (Exception e)
+  }
+
+
+  private class Acceptor extends Thread
+  {
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    Acceptor(int id, ServerSocketChannel server) throws Exception
     {
-      logger.log(Level.SEVERE,e.getMessage(),e);
-    }
+      this.server = server;
+      this.selector = Selector.open();
+      this.server.register(selector,SelectionKey.OP_ACCEPT);
 
-    state = STOPPED;
-    logger.info("HTTPServer("+type+") stopped");
+      this.setDaemon(true);
+      this.setName("HTTPServer("+type+")-acceptor-"+id);
 
-    try
+      this.start();
+    }
+
+    @Override
+    public void run()
     {
-      if (!this.server.config().getTopology().hot)
-        System.exit(0);
+      accept(selector,server);
     }
-    catch (Exception e) {;}
   }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.util.ArrayList;
+
+
+/**
+ *
+ * Hashed timer wheel for the channels of one waiter. Each slot covers one tick,
+ * and holds the channels due within that tick. Scheduling is O(1). Each tick
+ * only the slot that is due is visited, so channels are expired within one tick
+ * of their deadline, however many are idle. Touching a channel doesn't move it.
+ * The waiter checks it when due, and reschedules it if it has been used since.
+ * Only used from the waiter thread.
+ *
+ */
+class HTTPTimer
+{
+  private long done;
+  private final long tick;
+  private final ArrayList<Entry>[] wheel;
+
+  private final ArrayList<HTTPChannel> due =
+    new ArrayList<HTTPChannel>();
+
+  private final static int SLOTS = 128;
+  private final static int MINTICK = 10;
+
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  HTTPTimer(int timeout)
+  {
+    long tick = timeout / (SLOTS/2);
+    if (tick < MINTICK) tick = MINTICK;
+
+    this.tick = tick;
+    this.wheel = new ArrayList[SLOTS];
+    this.done = System.currentTimeMillis() / tick;
+
+    for (int i = 0; i < wheel.length; i++)
+      wheel[i] = new ArrayList<Entry>();
+  }
+
+
+  long tick()
+  {
+    return(tick);
+  }
+
+
+  void schedule(HTTPChannel client, long deadline)
+  {
+    long slot = deadline / tick;
+    if (slot <= done) slot = done + 1;
+    wheel[(int) (slot % SLOTS)].add(new Entry(client,deadline));
+  }
+
+
+  /**
+   *
+   * Returns the channels that are due. They are no longer scheduled.
+   *
+   */
+  ArrayList<HTTPChannel> expire(long now)
+  {
+    due.clear();
+    long current = now / tick;
+
+    // After a stall, visit each slot once
+    if (current - done > SLOTS)
+      done = current - SLOTS;
+
+    while(done < current)
+    {
+      done++;
+
+      int kept = 0;
+      ArrayList<Entry> slot = wheel[(int) (done % SLOTS)];
+
+      for (int i = 0; i < slot.size(); i++)
+      {
+        Entry entry = slot.get(i);
+
+        if (entry.deadline / tick <= done) due.add(entry.client);
+        else slot.set(kept++,entry);
+      }
+
+      slot.subList(kept,slot.size()).clear();
+    }
+
+    return(due);
+  }
+
+
+  private static class Entry
+  {
+    private final long deadline;
+    private final HTTPChannel client;
+
+    Entry(HTTPChannel client, long deadline)
+    {
+      this.client = client;
+      this.deadline = deadline;
+    }
+  }
+}
\ No newline at end of file
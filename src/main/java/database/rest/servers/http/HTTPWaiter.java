@@ -21,9 +21,7 @@
 
 package database.rest.servers.http;
 
-import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.nio.ByteBuffer;
@@ -32,10 +30,16 @@ import java.util.logging.Logger;
 import java.nio.channels.Selector;
 import database.rest.config.Config;
 import database.rest.servers.Server;
+import database.rest.config.Handlers;
 import database.rest.pools.ThreadPool;
 import java.nio.channels.SelectionKey;
+import database.rest.handlers.Handler;
 import java.nio.channels.SocketChannel;
+import database.rest.handlers.FileHandler;
+import database.rest.handlers.RestHandler;
+import database.rest.handlers.AppFileHandler;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 class HTTPWaiter extends Thread
@@ -43,15 +47,18 @@ class HTTPWaiter extends Thread
   private final int timeout;
   private final Server server;
   private final Config config;
+  private final HTTPTimer timer;
   private final Selector selector;
+  private final ThreadPool rest;
+  private final ThreadPool files;
   private final ThreadPool workers;
 
+  private volatile int registered = 0;
+  private final AtomicInteger added = new AtomicInteger(0);
+
   private final ArrayList<HTTPChannel> queue =
     new ArrayList<HTTPChannel>();
 
-  private final HashSet<HTTPChannel> connected =
-    new HashSet<HTTPChannel>();
-
   private final ConcurrentHashMap<SelectionKey,HTTPRequest> incomplete =
     new ConcurrentHashMap<SelectionKey,HTTPRequest>();
 
@@ -64,10 +71,13 @@ class HTTPWaiter extends Thread
     this.config = server.config();
     this.selector = Selector.open();
     this.timeout = config.getHTTP().timeout;
+    this.timer = new HTTPTimer(timeout);
 
     this.setDaemon(true);
     this.setName("HTTPWaiter("+id+")");
-    this.workers = new ThreadPool(config.getTopology().workers);
+    this.rest = new ThreadPool("rest",config.getTopology());
+    this.files = new ThreadPool("files",config.getTopology());
+    this.workers = new ThreadPool("http",config.getTopology());
 
     this.start();
   }
@@ -85,10 +95,25 @@ class HTTPWaiter extends Thread
   }
 
 
+  /**
+   *
+   * The number of clients, i.e. registered keys plus clients not yet registered.
+   *
+   */
+  int load()
+  {
+    return(registered + added.get());
+  }
+
+
   void addClient(HTTPChannel client) throws Exception
   {
     synchronized(this)
-    {queue.add(client);}
+    {
+      queue.add(client);
+      added.incrementAndGet();
+    }
+
     selector.wakeup();
   }
 
@@ -106,25 +131,32 @@ class HTTPWaiter extends Thread
         for(HTTPChannel client : queue)
         {
           add = true;
-          connected.add(client);
 
           try
           {
             if (client.channel().isOpen())
-              client.channel().register(selector,SelectionKey.OP_READ,client);
+            {
+              client.register(client.channel().register(selector,SelectionKey.OP_READ,client));
+              timer.schedule(client,client.touched()+timeout);
+            }
           }
           catch (Exception e)
           {
             e.printStackTrace();
-            connected.remove(client);
           }
         }
 
         queue.clear();
+        added.set(0);
+
+        registered = selector.keys().size();
       }
 
       if (add) Thread.yield();
-      ready = selector.select();
+      ready = selector.select(timer.tick());
+      registered = selector.keys().size();
+
+      cleanout();
     }
   }
 
@@ -154,7 +186,10 @@ class HTTPWaiter extends Thread
           SelectionKey key = iterator.next();
           iterator.remove();
 
-          if (key.isReadable() && key.isValid())
+          if (key.isValid() && key.isWritable())
+            flush((HTTPChannel) key.attachment());
+
+          if (key.isValid() && key.isReadable())
           {
             HTTPChannel client = (HTTPChannel) key.attachment();
             SocketChannel channel = (SocketChannel) key.channel();
@@ -174,16 +209,42 @@ class HTTPWaiter extends Thread
 
             int read = buf.remaining();
 
+            if (read == 0)
+              client.release(buf);
+
             if (read > 0)
             {
-              boolean done = false;
-              HTTPRequest request = incomplete.remove(key);
-              if (request == null) request = new HTTPRequest(this,client,key);
-
               try
               {
-                if (!request.add(buf)) incomplete.put(key,request);
-                else done = true;
+                while (buf.hasRemaining())
+                {
+                  HTTP2Session http2 = client.http2();
+
+                  if (http2 != null)
+                  {
+                    http2.add(buf);
+                    break;
+                  }
+
+                  HTTPRequest request = incomplete.remove(key);
+                  if (request == null) request = new HTTPRequest(this,client,key);
+
+                  if (!request.add(buf))
+                  {
+                    incomplete.put(key,request);
+                    break;
+                  }
+
+                  // The rest of the buffer is HTTP/2
+                  if (request.preface() && client.h2())
+                  {
+                    client.http2(new HTTP2Session(this,client));
+                    continue;
+                  }
+
+                  if (!submit(client,request))
+                    break;
+                }
               }
               catch (Exception e)
               {
@@ -191,21 +252,13 @@ class HTTPWaiter extends Thread
                 error(channel,400,false);
                 continue;
               }
-
-              try
+              finally
               {
-                logger.finest("Request "+request.path()+" submit "+done);
-                if (done) workers.submit(new HTTPWorker(workers,request));
-              }
-              catch (Exception e)
-              {
-                logger.log(Level.SEVERE,e.getMessage(),e);
-                error(channel,500,false);
-                continue;
+                client.release(buf);
               }
             }
           }
-          else
+          else if (key.isValid() && !key.isWritable())
           {
             logger.warning("Key is not readable");
           }
@@ -219,49 +272,135 @@ class HTTPWaiter extends Thread
   }
 
 
-  void cleanout()
+  private void flush(HTTPChannel client)
   {
-    ArrayList<SelectionKey> cancelled = new ArrayList<SelectionKey>();
+    client.flush();
 
-    for(Map.Entry<SelectionKey,HTTPRequest> entry : incomplete.entrySet())
-      if (entry.getValue().cancelled()) cancelled.add(entry.getKey());
+    HTTPRequest next = client.resume();
+    if (next == null) return;
 
-    for(SelectionKey key : cancelled)
+    try
+    {
+      dispatch(next);
+    }
+    catch (Exception e)
     {
-      incomplete.remove(key);
-      logger.info("Removing incomplete request");
+      logger.log(Level.SEVERE,e.getMessage(),e);
+      client.failed();
+    }
+  }
 
-      try
-      {
-        ByteBuffer buf = ByteBuffer.allocate(1024);
-        SocketChannel rsp = (SocketChannel) key.channel();
-        buf.put(err400(false));
-        buf.position(0);
-        rsp.write(buf);
-        rsp.close();
-      }
-      catch (Exception e) {;}
+
+  /**
+   *
+   * Runs the request on the executor for its handler. Static files and rest
+   * (jdbc) have their own, so slow queries don't hold up files and vice versa.
+   *
+   */
+  void dispatch(HTTPRequest request) throws Exception
+  {
+    ThreadPool pool = workers;
+    HTTPChannel client = request.channel();
+
+    if (!client.admin())
+    {
+      String path = request.path();
+
+      // The query is split off when the worker parses the request
+      int query = path.indexOf('?');
+      if (query >= 0) path = path.substring(0,query);
+
+      Handlers handlers = config.getHTTP().handlers;
+      Handler handler = handlers.getHandler(path,request.method());
+
+      if (handler instanceof RestHandler) pool = rest;
+      else if (handler instanceof FileHandler) pool = files;
+      else if (handler instanceof AppFileHandler) pool = files;
     }
 
+    pool.submit(new HTTPWorker(this,request));
+  }
+
+
+  private boolean submit(HTTPChannel client, HTTPRequest request)
+  {
+    try
+    {
+      logger.finest("Request "+request.path()+" submit");
+      if (client.queue(request)) dispatch(request);
+      return(true);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+      error(client.channel(),500,false);
+      return(false);
+    }
+  }
+
+
+  /**
+   *
+   * Expires the channels that are due on the timer. Channels used since they
+   * were scheduled are rescheduled. Incomplete requests older than 30 secs are
+   * answered with 400 and closed.
+   *
+   */
+  private void cleanout()
+  {
     long now = System.currentTimeMillis();
-    HTTPChannel[] open = connected.toArray(new HTTPChannel[0]);
 
-    for(HTTPChannel client : open)
+    for(HTTPChannel client : timer.expire(now))
     {
-      boolean timedout = now - client.touched() > timeout;
-      boolean connected = client.channel().isConnected() || client.channel().isOpen();
+      SelectionKey key = client.key();
+      if (!client.channel().isOpen()) continue;
+
+      HTTPRequest request = null;
+      if (key != null) request = incomplete.get(key);
 
-      if (!connected || (timedout && !client.stayalive()))
+      if (request != null && request.cancelled())
       {
-        this.connected.remove(client);
-        if (timedout) logger.fine("Client KeepAlive timed out");
+        incomplete.remove(key);
+        logger.info("Removing incomplete request");
+
+        try
+        {
+          ByteBuffer buf = ByteBuffer.allocate(1024);
+          SocketChannel rsp = client.channel();
+          buf.put(err400(false));
+          buf.position(0);
+          rsp.write(buf);
+          rsp.close();
+        }
+        catch (Exception e) {;}
+
+        continue;
+      }
+
+      long deadline = client.touched() + timeout;
 
-        if (connected && !client.ssl())
+      if (deadline <= now)
+      {
+        if (!client.stayalive())
         {
-          try {client.channel().close();}
-          catch(Exception e) {;}
+          logger.fine("Client KeepAlive timed out");
+
+          if (!client.ssl())
+          {
+            try {client.channel().close();}
+            catch(Exception e) {;}
+          }
+
+          continue;
         }
+
+        deadline = now + timeout;
       }
+
+      if (request != null && request.expires() < deadline)
+        deadline = request.expires();
+
+      timer.schedule(client,deadline);
     }
   }
 
@@ -315,6 +454,20 @@ class HTTPWaiter extends Thread
   }
 
 
+  public static byte[] err503(boolean rest, int retry)
+  {
+    String msg = "<b>Service Unavailable</b>";
+    if (rest) msg = "{\"status\": \"failed\", \"message\": \"Service Unavailable\"}";
+
+    String page = "HTTP/1.1 503 Service Unavailable" + EOL +
+                  "Content-Type: text/html" + EOL +
+                  "Retry-After: "+retry + EOL +
+                  "Content-Length: "+msg.length() + EOL + EOL + msg;
+
+    return(page.getBytes());
+  }
+
+
   public static byte[] err500(boolean rest)
   {
     String msg = "<b>Internal Server Error</b>";
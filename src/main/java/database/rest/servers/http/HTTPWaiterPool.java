@@ -22,13 +22,13 @@
 package database.rest.servers.http;
 
 import database.rest.servers.Server;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class HTTPWaiterPool
 {
   private static HTTPWaiter[] waiters;
-  private static volatile short next = -1;
-  private static final Object LOCK = new Object();
+  private static final AtomicInteger next = new AtomicInteger(0);
 
 
   public HTTPWaiterPool(Server server, boolean embedded, short threads) throws Exception
@@ -49,13 +49,32 @@ public class HTTPWaiterPool
   }
 
 
+  /**
+   *
+   * Returns the waiter with the fewest clients. The scan starts at a new waiter
+   * each time, so that waiters with equal load take turns.
+   *
+   */
   public HTTPWaiter getWaiter()
   {
-    synchronized(LOCK)
+    int start = Math.floorMod(next.getAndIncrement(),waiters.length);
+
+    HTTPWaiter waiter = waiters[start];
+    int load = waiter.load();
+
+    for (int i = 1; i < waiters.length && load > 0; i++)
     {
-      next = (short) (++next % waiters.length);
-      return(waiters[next]);
+      HTTPWaiter cand = waiters[(start + i) % waiters.length];
+      int cload = cand.load();
+
+      if (cload < load)
+      {
+        load = cload;
+        waiter = cand;
+      }
     }
+
+    return(waiter);
   }
 
 
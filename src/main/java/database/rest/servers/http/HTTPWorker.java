@@ -28,18 +28,18 @@ import database.rest.handlers.Handler;
 import database.rest.pools.ThreadPool;
 
 
-public class HTTPWorker implements Runnable
+public class HTTPWorker implements ThreadPool.Task
 {
   private final Logger logger;
   private final Handlers handlers;
-  private final ThreadPool workers;
+  private final HTTPWaiter waiter;
   private final HTTPChannel channel;
   private final HTTPRequest request;
 
 
-  public HTTPWorker(ThreadPool workers, HTTPRequest request) throws Exception
+  HTTPWorker(HTTPWaiter waiter, HTTPRequest request) throws Exception
   {
-    this.workers  = workers;
+    this.waiter   = waiter;
     this.request  = request;
     this.channel  = request.channel();
     this.logger   = request.channel().logger();
@@ -74,9 +74,8 @@ public class HTTPWorker implements Runnable
         if (logger.getLevel() == Level.FINEST)
           logger.finest("redirect: "+new String(response.page()));
 
-        request.respond(response.page());
+        request.respond(response);
         this.channel.stayalive(false);
-        channel.workers().done();
 
         return;
       }
@@ -91,30 +90,76 @@ public class HTTPWorker implements Runnable
       {
         logger.warning("No appropiate handler mapped to path="+path+" method="+method);
 
-        this.workers.done();
         this.channel.stayalive(false);
 
         try {request.respond(HTTPWaiter.err500(false));} catch (Exception ex) {;}
-        this.channel.failed();
+        this.failed();
 
         return;
       }
 
       HTTPResponse response = handler.handle(request);
-      if (response != null) request.respond(response.page());
-
-      channel.workers().done();
+      if (response != null) request.respond(response);
     }
     catch(Throwable e)
     {
-      this.workers.done();
       logger.log(Level.SEVERE,e.getMessage(),e);
       try {request.respond(HTTPWaiter.err500(false));} catch (Exception ex) {;}
-      this.channel.failed();
+      this.failed();
+    }
+    finally
+    {
+      this.channel.stayalive(false);
+      this.next();
+    }
+  }
+
+
+  @Override
+  public void reject(int retry) throws Exception
+  {
+    try
+    {
+      logger.warning("Request "+request.path()+" shed, server busy");
+      request.respond(HTTPWaiter.err503(false,retry));
     }
     finally
     {
       this.channel.stayalive(false);
+      this.next();
+    }
+  }
+
+
+  /**
+   *
+   * A failed HTTP/2 stream doesn't fail the other streams on the connection.
+   *
+   */
+  private void failed()
+  {
+    if (request.h2stream() == null)
+      this.channel.failed();
+  }
+
+
+  private void next()
+  {
+    // Streams are not pipelined
+    if (request.h2stream() != null)
+      return;
+
+    HTTPRequest next = channel.next();
+    if (next == null) return;
+
+    try
+    {
+      waiter.dispatch(next);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+      this.channel.failed();
     }
   }
 }
\ No newline at end of file
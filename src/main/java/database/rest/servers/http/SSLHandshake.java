@@ -23,13 +23,14 @@ package database.rest.servers.http;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.net.ssl.SSLSession;
 import database.rest.servers.Server;
 import database.rest.pools.ThreadPool;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 
-class SSLHandshake extends Thread
+class SSLHandshake extends Thread implements ThreadPool.Task
 {
   private final Logger logger;
   private final boolean admin;
@@ -51,19 +52,36 @@ class SSLHandshake extends Thread
   {
     try
     {
+      long start = System.nanoTime();
+      long started = System.currentTimeMillis();
+
       Server server = httpserv.server();
       ThreadPool workers = httpserv.workers();
       HTTPChannel client = new HTTPChannel(server,workers,channel,true,admin);
 
-      if (client.accept())
-        httpserv.assign(client);
+      if (!client.accept())
+      {
+        SSLStatistics.failed();
+        return;
+      }
+
+      SSLSession session = client.session();
+      boolean resumed = session.getCreationTime() < started;
 
-      httpserv.workers().done();
+      SSLStatistics.done(resumed,System.nanoTime()-start);
+      httpserv.assign(client);
     }
     catch (Exception e)
     {
-      httpserv.workers().done();
       logger.log(Level.SEVERE,e.getMessage(),e);
     }
   }
+
+
+  @Override
+  public void reject(int retry) throws Exception
+  {
+    logger.warning("SSL handshake shed, server busy");
+    channel.close();
+  }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *
+ * Counts server side SSL handshakes, full and resumed, and their latency.
+ * A resumed session was created before the handshake started.
+ *
+ */
+public class SSLStatistics
+{
+  private static final AtomicLong full = new AtomicLong(0);
+  private static final AtomicLong resumed = new AtomicLong(0);
+  private static final AtomicLong failed = new AtomicLong(0);
+  private static final AtomicLong elapsed = new AtomicLong(0);
+  private static final AtomicLong slowest = new AtomicLong(0);
+
+
+  static void done(boolean resume, long nanos)
+  {
+    if (resume) resumed.incrementAndGet();
+    else        full.incrementAndGet();
+
+    elapsed.addAndGet(nanos);
+    slowest.accumulateAndGet(nanos,Math::max);
+  }
+
+
+  static void failed()
+  {
+    failed.incrementAndGet();
+  }
+
+
+  public static long full()
+  {
+    return(full.get());
+  }
+
+
+  public static long resumed()
+  {
+    return(resumed.get());
+  }
+
+
+  public static long failures()
+  {
+    return(failed.get());
+  }
+
+
+  /**
+   *
+   * Average handshake latency in microseconds.
+   *
+   */
+  public static long average()
+  {
+    long count = full.get() + resumed.get();
+    if (count == 0) return(0);
+    return(elapsed.get() / count / 1000);
+  }
+
+
+  /**
+   *
+   * Longest handshake latency in microseconds.
+   *
+   */
+  public static long max()
+  {
+    return(slowest.get() / 1000);
+  }
+}
\ No newline at end of file
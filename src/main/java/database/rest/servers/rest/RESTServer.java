@@ -72,7 +72,7 @@ public class RESTServer implements RESTConnection
     if (config.getTopology().hot) http++;
 
     this.rid = (short) (server.id() - http);
-    this.workers = new ThreadPool(config.getTopology().workers);
+    this.workers = new ThreadPool("rest",config.getTopology());
 
     serve();
   }
@@ -239,6 +239,7 @@ public class RESTServer implements RESTConnection
         }
 
         response.add(buf);
+        channel.release(buf);
       }
 
       channel.socket().setSoTimeout(0);
@@ -331,7 +332,7 @@ public class RESTServer implements RESTConnection
         http.add(page);
       }
 
-      workers.submit(new RESTWorker(this,workers,http));
+      workers.submit(new RESTWorker(this,http));
     }
   }
 }
\ No newline at end of file
@@ -31,19 +31,17 @@ import database.rest.servers.http.HTTPRequest;
 import database.rest.servers.http.HTTPResponse;
 
 
-public class RESTWorker implements Runnable
+public class RESTWorker implements ThreadPool.Task
 {
   private final Logger logger;
   private final RESTComm bridge;
   private final RESTServer rserver;
-  private final ThreadPool workers;
 
 
-  public RESTWorker(RESTServer rserver, ThreadPool workers, RESTComm bridge)
+  public RESTWorker(RESTServer rserver, RESTComm bridge)
   {
     this.bridge = bridge;
     this.rserver = rserver;
-    this.workers = workers;
     this.logger = rserver.logger();
   }
 
@@ -78,7 +76,6 @@ public class RESTWorker implements Runnable
     }
     catch (Exception e)
     {
-      this.workers.done();
       logger.log(Level.SEVERE,e.getMessage(),e);
 
       byte[] data = ("{\"status\": \""+e.getMessage()+"\"}").getBytes();
@@ -86,4 +83,22 @@ public class RESTWorker implements Runnable
       rserver.respond(error);
     }
   }
+
+
+  @Override
+  public void reject(int retry) throws Exception
+  {
+    logger.warning("Request shed, server busy");
+
+    HTTPResponse response = new HTTPResponse();
+
+    response.setResponse(503);
+    response.setHeader("Retry-After",retry);
+    response.setContentType("application/json");
+    response.setBody("{\"status\": \"failed\", \"message\": \"Service Unavailable\"}");
+
+    byte[] data = response.page();
+    RESTComm error = new RESTComm(bridge.id(),bridge.extend(),bridge.host(),data);
+    rserver.respond(error);
+  }
 }
\ No newline at end of file
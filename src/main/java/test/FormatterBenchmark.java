@@ -0,0 +1,528 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package test;
+
+import java.util.Random;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import database.rest.handlers.rest.JSONWriter;
+import database.rest.handlers.rest.JSONFormatter;
+import database.rest.handlers.rest.JSONFormatter.Type;
+
+
+/**
+ *
+ * Formats the same documents, one for each layout, with the JSONFormatter
+ * writing into a JSONWriter and with the former formatter concatenating strings.
+ * Fails if the output differs, then compares the time per document.
+ *
+ */
+public class FormatterBenchmark
+{
+  private static final String[] COLUMNS = new String[] {"id","name","amount","created","note"};
+  private static final Type[] LAYOUTS = new Type[] {Type.Object, Type.SimpleArray, Type.Matrix, Type.ObjectArray};
+
+
+  public static void main(String[] args) throws Exception
+  {
+    int rows = 2000;
+    int loops = 10;
+
+    if (args.length > 0) rows = Integer.parseInt(args[0]);
+    if (args.length > 1) loops = Integer.parseInt(args[1]);
+
+    ArrayList<Object[]> data = rows(rows);
+
+    for(Type layout : LAYOUTS)
+    {
+      String writer = format(layout,data).toString();
+      String concat = concatenate(layout,data).toString();
+
+      if (!writer.equals(concat))
+        throw new Exception(layout+" differs from the former formatter");
+
+      new JSONObject(writer);
+    }
+
+    System.out.println("Output identical for "+LAYOUTS.length+" layouts, "+rows+" rows, "+loops+" loops");
+    System.out.println();
+
+    for(Type layout : LAYOUTS)
+    {
+      for (int i = 0; i < loops; i++) write(layout,data);
+
+      long writer = 0;
+      long concat = 0;
+
+      for (int i = 0; i < loops; i++)
+      {
+        long time = System.nanoTime();
+        write(layout,data);
+        writer += System.nanoTime() - time;
+
+        time = System.nanoTime();
+        concatenate(layout,data).toString();
+        concat += System.nanoTime() - time;
+      }
+
+      System.out.println(String.format("%-12s writer %10.1f us/doc, concatenating %12.1f us/doc",layout,writer/(loops*1000.0),concat/(loops*1000.0)));
+    }
+  }
+
+
+  private static int write(Type layout, ArrayList<Object[]> data) throws Exception
+  {
+    JSONWriter out = JSONWriter.get();
+
+    try
+    {
+      format(layout,data).write(out);
+      return(out.size());
+    }
+    finally
+    {
+      JSONWriter.release(out);
+    }
+  }
+
+
+  private static JSONFormatter format(Type layout, ArrayList<Object[]> data)
+  {
+    JSONFormatter json = new JSONFormatter();
+
+    json.success(true);
+    json.add("more",false);
+    json.add("message","rows for \"layout\" <"+layout+"/> \u00e6\u00f8\u00e5");
+
+    if (layout == Type.Object)
+    {
+      for (int i = 0; i < data.size(); i++)
+      {
+        json.push("row"+i);
+
+        for (int j = 0; j < COLUMNS.length; j++)
+          json.add(COLUMNS[j],data.get(i)[j]);
+
+        json.pop();
+      }
+    }
+    else
+    {
+      json.push("rows",layout);
+
+      if (layout == Type.SimpleArray) json.add(data.get(0));
+      else if (layout == Type.Matrix) json.add(data);
+      else for(Object[] row : data) json.add(COLUMNS,row);
+
+      json.pop();
+    }
+
+    return(json);
+  }
+
+
+  private static Concatenating concatenate(Type layout, ArrayList<Object[]> data)
+  {
+    Concatenating json = new Concatenating();
+
+    json.success(true);
+    json.add("more",false);
+    json.add("message","rows for \"layout\" <"+layout+"/> \u00e6\u00f8\u00e5");
+
+    if (layout == Type.Object)
+    {
+      for (int i = 0; i < data.size(); i++)
+      {
+        json.push("row"+i,Type.Object);
+
+        for (int j = 0; j < COLUMNS.length; j++)
+          json.add(COLUMNS[j],data.get(i)[j]);
+
+        json.pop();
+      }
+    }
+    else
+    {
+      json.push("rows",layout);
+
+      if (layout == Type.SimpleArray) json.add(data.get(0));
+      else if (layout == Type.Matrix) json.add(data);
+      else for(Object[] row : data) json.add(COLUMNS,row);
+
+      json.pop();
+    }
+
+    return(json);
+  }
+
+
+  private static ArrayList<Object[]> rows(int rows)
+  {
+    Random random = new Random(rows);
+    ArrayList<Object[]> data = new ArrayList<Object[]>();
+
+    for (int i = 0; i < rows; i++)
+    {
+      Object note = null;
+
+      switch(i % 4)
+      {
+        case 0: note = "plain note "+random.nextInt(); break;
+        case 1: note = "line\nbreak, tab\t and \"quotes\" \u00e6\u00f8\u00e5"; break;
+        case 2: note = "control \u0001 and </script> \u2028 \u0085"; break;
+        case 3: note = Boolean.valueOf(random.nextBoolean()); break;
+      }
+
+      data.add(new Object[] {(long) i, "name "+i, new BigDecimal(i+".25"), 1700000000000L+i, note});
+    }
+
+    return(data);
+  }
+
+
+  /**
+   *
+   * The former JSONFormatter, building the document by string concatenation.
+   *
+   */
+  private static class Concatenating
+  {
+    private Content content = new Content(Type.Object);
+
+
+    void success(boolean success)
+    {
+      content.status(success);
+    }
+
+
+    void pop()
+    {
+      content = content.parent;
+    }
+
+
+    void push(String name, Type type)
+    {
+      content = content.push(name,type);
+    }
+
+
+    void add(Object[] values)
+    {
+      content.add(values);
+    }
+
+
+    void add(ArrayList<Object[]> list)
+    {
+      content.add(list.toArray(new Object[0][]));
+    }
+
+
+    void add(String name, Object value)
+    {
+      content.add(name,value);
+    }
+
+
+    void add(String[] name, Object[] value)
+    {
+      content.add(name,value);
+    }
+
+
+    @Override
+    public String toString()
+    {
+      Content content = this.content;
+
+      while(content.parent != null)
+        content = content.parent;
+
+      return(content.persist());
+    }
+
+
+    private static class Content
+    {
+      private final Type type;
+      private final String name;
+      private final Content parent;
+
+      private final static String nl =
+        System.lineSeparator();
+
+      private final ArrayList<Object> content =
+        new ArrayList<Object>();
+
+      Content(Type type)
+      {
+        this(null,type,null);
+      }
+
+      private Content(Content parent, Type type, String name)
+      {
+        this.name = name;
+        this.type = type;
+        this.parent = parent;
+      }
+
+      Content push(String name, Type type)
+      {
+        Content next = new Content(this,type,name);
+        content.add(next);
+        return(next);
+      }
+
+      void status(boolean success)
+      {
+        String name = "success";
+        content.add(0,new Object[] {name,success});
+      }
+
+      void add(Object[] array)
+      {
+        content.add(array);
+      }
+
+      void add(String name, Object value)
+      {
+        content.add(new Object[] {name,value});
+      }
+
+      void add(String[] name, Object[] value)
+      {
+        content.add(new Object[][] {name,value});
+      }
+
+
+      String persist()
+      {
+        return(persist(this,0));
+      }
+
+
+      private String persist(Content node, int level)
+      {
+        if (node.type == Type.Matrix)
+          return(persistMatrix(node,level));
+
+        if (node.type == Type.SimpleArray)
+          return(persistSimpleArray(node,level));
+
+        if (node.type == Type.ObjectArray)
+          return(persistObjectArray(node,level));
+
+        String lev = "";
+        if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
+
+        String str = "";
+        String ind = lev + "  ";
+
+        if (level > 0) str += nl;
+        str += lev + "{" + nl;
+
+        int elements = node.content.size();
+
+        for (int i = 0; i < elements; i++)
+        {
+          Object elem = node.content.get(i);
+
+          String comm = "";
+          if (i < elements - 1) comm = ",";
+
+          String newl = "";
+          if (i > 0) newl = nl;
+
+          if (elem instanceof Content)
+          {
+            Content next = (Content) elem;
+            str += newl + ind + quote(next.name)+":";
+            str += persist(next,level+1)+comm;
+          }
+          else
+          {
+            Object[] nvp = (Object[]) elem;
+            str += newl + ind + quote(nvp[0])+": "+escape(nvp[1])+comm;
+          }
+        }
+
+        str += nl + lev + "}";
+        return(str);
+      }
+
+
+      String persistObjectArray(Content node, int level)
+      {
+        String lev = "";
+        if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
+
+        String str = "";
+        String ind = lev + "  ";
+
+        if (level > 0) str += nl;
+        str += lev + "[" + nl;
+
+        int elements = node.content.size();
+
+        for (int i = 0; i < elements; i++)
+        {
+          Object elem = node.content.get(i);
+
+          String comm = "";
+          if (i < elements - 1) comm = ",";
+
+          String newl = "";
+          if (i > 0) newl = nl;
+
+          if (elem instanceof Content)
+          {
+            Content next = (Content) elem;
+            str += newl + ind + quote(next.name)+":";
+            str += persist(next,level+1)+comm;
+          }
+          else
+          {
+            Object[][] row = (Object[][]) elem;
+
+            Object[] names = row[0];
+            Object[] values = row[1];
+
+            str += newl + ind + "{";
+
+            for (int j = 0; j < names.length; j++)
+            {
+              String next = "";
+              if (j < names.length - 1) next = ",";
+
+              Object name = names[j];
+              Object value = values[j];
+
+              str += quote(name)+": "+escape(value)+next;
+            }
+
+            str += "}" + comm;
+          }
+        }
+
+        str += nl + lev + "]";
+        return(str);
+      }
+
+
+      String persistSimpleArray(Content node, int level)
+      {
+        String lev = "";
+        if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
+
+        String str = lev + "[";
+
+        Object elem = node.content.get(0);
+        Object[] values = (Object[]) elem;
+
+        for (int j = 0; j < values.length; j++)
+        {
+          String next = "";
+          if (j < values.length - 1) next = ",";
+
+          Object value = values[j];
+          str += escape(value)+next;
+        }
+
+        str += "]";
+        return(str);
+      }
+
+
+      String persistMatrix(Content node, int level)
+      {
+        String lev = "";
+        if (level > 0) lev = String.format("%"+(2*level)+"s"," ");
+
+        String ind = lev + "  ";
+        String str = nl + lev + "[";
+
+        Object[][] rows = (Object[][]) node.content.get(0);
+
+        for (int i = 0; i < rows.length; i++)
+        {
+          String comm = "";
+          if (i < rows.length - 1) comm = ",";
+
+          str += nl + ind + "[";
+
+          Object[] cols = rows[i];
+          for (int j = 0; j < cols.length; j++)
+          {
+            String next = "";
+            if (j < cols.length-1) next = ",";
+            str += escape(cols[j])+next;
+          }
+
+          str += "]" + comm;
+        }
+
+        str += nl + lev + "]";
+        return(str);
+      }
+
+      String escape(Object value)
+      {
+        if (value == null)
+          return("null");
+
+        if (value instanceof Boolean)
+          return(value.toString());
+
+        if (value instanceof Long)
+          return(value.toString());
+
+        if (value instanceof Integer)
+          return(value.toString());
+
+        if (value instanceof Float)
+          return(value.toString());
+
+        if (value instanceof Double)
+          return(value.toString());
+
+        if (value instanceof BigInteger)
+          return(value.toString());
+
+        if (value instanceof BigDecimal)
+          return(value.toString());
+
+        value = JSONObject.quote(value.toString());
+        return(value.toString());
+      }
+
+
+      String quote(Object str)
+      {
+        return("\""+str+"\"");
+      }
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,263 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.sql.ResultSet;
+import java.sql.PreparedStatement;
+import database.rest.database.Pool;
+import java.util.concurrent.TimeUnit;
+import database.rest.database.Database;
+import database.rest.database.BindValue;
+import database.rest.database.BindValueDef;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *
+ * 1000 threads competing for 32 connections, each held for 1ms, against the
+ * pool and the former one, that polled under a single lock and woke all waiters.
+ * Reports the time waiting for a connection, and any connection handed to two
+ * callers at once.
+ *
+ */
+public class PoolBenchmark
+{
+  private static int threads = 1000;
+  private static int connections = 32;
+  private static int rounds = 10;
+  private static long hold = 1;
+
+
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length > 0) threads = Integer.parseInt(args[0]);
+    if (args.length > 1) connections = Integer.parseInt(args[1]);
+    if (args.length > 2) rounds = Integer.parseInt(args[2]);
+    if (args.length > 3) hold = Long.parseLong(args[3]);
+
+    System.out.println(threads+" threads, "+connections+" connections, "+rounds+" rounds, "+hold+"ms hold");
+    System.out.println();
+
+    for (int i = 0; i < 2; i++)
+    {
+      run("pool",new Current());
+      run("former",new Former());
+    }
+  }
+
+
+  private static void run(String name, Connections pool) throws Exception
+  {
+    AtomicLong timeouts = new AtomicLong();
+    AtomicLong overlaps = new AtomicLong();
+    AtomicInteger next = new AtomicInteger();
+
+    long[] waits = new long[threads*rounds];
+
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(threads);
+
+    for (int i = 0; i < threads; i++)
+    {
+      Thread thread = new Thread(() ->
+      {
+        try
+        {
+          start.await();
+
+          for (int r = 0; r < rounds; r++)
+          {
+            long time = System.nanoTime();
+            Connection conn = (Connection) pool.get();
+            waits[next.getAndIncrement()] = System.nanoTime() - time;
+
+            if (conn.users.incrementAndGet() != 1)
+              overlaps.incrementAndGet();
+
+            Thread.sleep(hold);
+
+            conn.users.decrementAndGet();
+            pool.release(conn);
+          }
+        }
+        catch (Exception e)
+        {
+          timeouts.incrementAndGet();
+        }
+
+        done.countDown();
+      });
+
+      thread.start();
+    }
+
+    long time = System.nanoTime();
+
+    start.countDown();
+    done.await();
+
+    time = System.nanoTime() - time;
+
+    int ops = next.get();
+    Arrays.sort(waits,0,ops);
+
+    System.out.println(String.format("%-6s %8.0f ops/s, wait p50 %8.2f ms, p99 %8.2f ms, max %8.2f ms, timeouts %d, double handoffs %d",
+      name,ops*1e9/time,waits[ops/2]/1e6,waits[(int) (ops*0.99)]/1e6,waits[ops-1]/1e6,timeouts.get(),overlaps.get()));
+  }
+
+
+  private static interface Connections
+  {
+    Database get() throws Exception;
+    void release(Database database);
+  }
+
+
+  private static class Current implements Connections
+  {
+    private final Pool pool;
+
+    Current() throws Exception
+    {
+      this.pool = new Pool(false,null,"bench","bench",0,connections,60,30);
+
+      // A dangling connection takes a slot in the pool when released
+      for (int i = 0; i < connections; i++)
+      {
+        Connection conn = new Connection();
+        conn.dangling(true);
+        pool.release(conn);
+      }
+    }
+
+    @Override
+    public Database get() throws Exception
+    {
+      return(pool.getConnection());
+    }
+
+    @Override
+    public void release(Database database)
+    {
+      pool.release(database);
+    }
+  }
+
+
+  private static class Former implements Connections
+  {
+    private final ArrayList<Database> pool = new ArrayList<Database>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    Former()
+    {
+      for (int i = 0; i < connections; i++)
+        pool.add(new Connection());
+    }
+
+    @Override
+    public Database get() throws Exception
+    {
+      long busy = 30 * 1000;
+      long start = System.currentTimeMillis();
+
+      lock.lock();
+
+      try
+      {
+        while(pool.size() == 0)
+        {
+          if (System.currentTimeMillis() - start > busy)
+            throw new Exception("No more available connections in pool");
+
+          available.await(1000,TimeUnit.MILLISECONDS);
+        }
+
+        return(pool.remove(0));
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void release(Database database)
+    {
+      lock.lock();
+
+      try
+      {
+        database.touch();
+        pool.add(0,database);
+        available.signalAll();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+
+
+  /**
+   *
+   * Never connected, counts the callers holding it.
+   *
+   */
+  private static class Connection extends Database
+  {
+    private final AtomicInteger users = new AtomicInteger();
+
+    @Override
+    public void releaseProxyUser() throws Exception
+    {
+    }
+
+    @Override
+    public void setProxyUser(String username) throws Exception
+    {
+    }
+
+    @Override
+    public ResultSet executeUpdateWithReturnValues(PreparedStatement stmt, String dateform) throws Exception
+    {
+      return(null);
+    }
+
+    @Override
+    public ReturnValueHandle prepareWithReturnValues(String sql, ArrayList<BindValue> bindvalues, HashMap<String,BindValueDef> alltypes, String dateform) throws Exception
+    {
+      return(null);
+    }
+  }
+}
\ No newline at end of file
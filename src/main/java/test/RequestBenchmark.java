@@ -0,0 +1,143 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package test;
+
+import java.nio.ByteBuffer;
+import database.rest.servers.http.HTTPRequest;
+
+
+/**
+ *
+ * Parses POST requests of 1KB, 64KB and 8MB, fed in network sized chunks,
+ * and compares with accumulating the request in one array (the former parser).
+ *
+ */
+public class RequestBenchmark
+{
+  private static final int CHUNK = 16*1024;
+  private static final ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK);
+  private static final int[] SIZES = new int[] {1024, 64*1024, 8*1024*1024};
+
+
+  public static void main(String[] args) throws Exception
+  {
+    int loops = 200;
+    if (args.length > 0) loops = Integer.parseInt(args[0]);
+
+    System.out.println("Chunk size "+CHUNK+", "+loops+" loops");
+    System.out.println();
+
+    for(int size : SIZES)
+    {
+      byte[] request = request(size);
+      int runs = size > 1024*1024 ? Math.max(loops/20,5) : loops * 10;
+
+      for (int i = 0; i < runs; i++) parse(request);
+      for (int i = 0; i < runs; i++) copying(request);
+
+      long parse = 0;
+      long copying = 0;
+
+      for (int i = 0; i < runs; i++)
+      {
+        long time = System.nanoTime();
+        parse(request);
+        parse += System.nanoTime() - time;
+
+        time = System.nanoTime();
+        copying(request);
+        copying += System.nanoTime() - time;
+      }
+
+      System.out.println(String.format("body %8d bytes, streaming %10.1f us/op, copying %10.1f us/op",size,parse/(runs*1000.0),copying/(runs*1000.0)));
+    }
+  }
+
+
+  private static int parse(byte[] request) throws Exception
+  {
+    int pos = Math.min(CHUNK,request.length);
+    byte[] first = new byte[pos];
+    System.arraycopy(request,0,first,0,pos);
+
+    HTTPRequest parser = new HTTPRequest(null,"localhost",first);
+    while (pos < request.length)
+    {
+      int len = Math.min(CHUNK,request.length-pos);
+
+      buf.clear();
+      buf.put(request,pos,len);
+      buf.flip();
+
+      parser.add(buf);
+      pos += len;
+    }
+
+    return(parser.body().length);
+  }
+
+
+  private static int copying(byte[] request) throws Exception
+  {
+    int pos = 0;
+    byte[] data = new byte[0];
+    while (pos < request.length)
+    {
+      int len = Math.min(CHUNK,request.length-pos);
+
+      buf.clear();
+      buf.put(request,pos,len);
+      buf.flip();
+
+      byte[] read = new byte[len];
+      buf.get(read);
+
+      byte[] next = new byte[data.length+len];
+      System.arraycopy(data,0,next,0,data.length);
+      System.arraycopy(read,0,next,data.length,len);
+
+      data = next;
+      pos += len;
+    }
+
+    String header = new String(data,0,Math.min(data.length,512));
+    return(header.split("\r\n").length);
+  }
+
+
+  private static byte[] request(int size)
+  {
+    String header = "POST /select HTTP/1.1\r\n"+
+                    "Host: localhost\r\n"+
+                    "Content-Type: application/json\r\n"+
+                    "Cookie: session=1234; theme=dark\r\n"+
+                    "Content-Length: "+size+"\r\n\r\n";
+
+    byte[] head = header.getBytes();
+    byte[] request = new byte[head.length+size];
+
+    System.arraycopy(head,0,request,0,head.length);
+    for (int i = head.length; i < request.length; i++) request[i] = 'x';
+
+    return(request);
+  }
+}
\ No newline at end of file